@@ -178,6 +178,40 @@ CREATE TABLE `person_relations` (
 )  ENGINE=INNODB DEFAULT CHARSET=LATIN1;
 
 
+/*Table structure for table `person_closure`, every ancestor-descendant pair with the fewest generations between them */
+DROP TABLE IF EXISTS `person_closure`;
+
+CREATE TABLE `person_closure` (
+    `ancestorId` INT NOT NULL,
+    `descendantId` INT NOT NULL,
+    `depth` INT NOT NULL,
+    PRIMARY KEY (`ancestorId` , `descendantId`),
+    KEY `personclosure_descendant` (`descendantId` , `depth`),
+    CONSTRAINT `personclosure_fk_1` FOREIGN KEY (`ancestorId`)
+        REFERENCES `persons` (`personId`),
+    CONSTRAINT `personclosure_fk_2` FOREIGN KEY (`descendantId`)
+        REFERENCES `persons` (`personId`)
+)  ENGINE=INNODB DEFAULT CHARSET=LATIN1;
+
+
+/*Table structure for table `person_relation_changes`, every change made to person_relations in the order it was
+made, so that a copy of the relations taken at a change id can be brought up to date */
+DROP TABLE IF EXISTS `person_relation_changes`;
+
+CREATE TABLE `person_relation_changes` (
+    `changeId` BIGINT NOT NULL AUTO_INCREMENT,
+    `personRelationTypeId` INT NOT NULL,
+    `person1Id` INT NOT NULL,
+    `person2Id` INT NOT NULL,
+    `isActive` TINYINT NOT NULL,
+    PRIMARY KEY (`changeId`),
+    CONSTRAINT `personrelationchanges_fk_1` FOREIGN KEY (`person1Id`)
+        REFERENCES `persons` (`personId`),
+    CONSTRAINT `personrelationchanges_fk_2` FOREIGN KEY (`person2Id`)
+        REFERENCES `persons` (`personId`)
+)  ENGINE=INNODB DEFAULT CHARSET=LATIN1;
+
+
 DROP PROCEDURE IF EXISTS `add_person`;
 
 /*Stored procedure for adding a person inside persons table.*/
@@ -401,9 +435,9 @@ DELIMITER ;
 DROP PROCEDURE IF EXISTS `is_personExists`;
 
 DELIMITER $$
-CREATE DEFINER=`root`@`localhost` PROCEDURE `is_personExists`(IN personID INT, OUT out_ID INT)
+CREATE DEFINER=`root`@`localhost` PROCEDURE `is_personExists`(IN personIdValue INT, OUT out_ID INT)
 BEGIN
-	IF EXISTS(SELECT 1 FROM persons WHERE personID = personID) THEN
+	IF EXISTS(SELECT 1 FROM persons WHERE personId = personIdValue) THEN
 		SET out_ID = 1;
 	ELSE 
 		SET out_ID = -1;
@@ -434,6 +468,9 @@ SET
 WHERE
     PR.person1Id = personId2
         AND PR.person2Id = personId1;
+            /*Dissolved partnership, the change is applied to both the partners.*/
+            INSERT INTO person_relation_changes(personRelationTypeId, person1Id, person2Id, isActive)
+			VALUES(2, personId1, personId2, 0);
         SET out_ID = 1;
         END;
         ELSE
@@ -460,6 +497,10 @@ WHERE
             INSERT INTO person_relations(personRelationTypeId, person1Id, person2Id, isActive)
 			VALUES(relationTypeId, personId2, personId1, 1);
             
+            /*Partnership, the change is applied to both the partners.*/
+            INSERT INTO person_relation_changes(personRelationTypeId, person1Id, person2Id, isActive)
+			VALUES(relationTypeId, personId1, personId2, 1);
+            
             SET out_ID = 1;
         END;
         END IF;
@@ -478,6 +519,10 @@ WHERE
 		BEGIN
 			INSERT INTO person_relations(personRelationTypeId, person1Id, person2Id, isActive)
 			VALUES(relationTypeId, personId1, personId2, 1);
+            /*Parent-child relationship, keep the closure in the same transaction.*/
+            CALL add_closureEdge(personId1, personId2);
+            INSERT INTO person_relation_changes(personRelationTypeId, person1Id, person2Id, isActive)
+			VALUES(relationTypeId, personId1, personId2, 1);
             SET out_ID = 1;
         END;
         
@@ -488,6 +533,48 @@ END$$
 DELIMITER ;
 
 
+DROP PROCEDURE IF EXISTS `add_closureEdge`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `add_closureEdge`(IN parentId INT, IN childId INT)
+BEGIN
+	/*Every ancestor of the parent, and the parent itself, becomes an ancestor of the child and its descendants.*/
+	INSERT INTO person_closure(ancestorId, descendantId, depth)
+	SELECT A.ancestorId, D.descendantId, A.depth + D.depth + 1
+	FROM (SELECT parentId AS ancestorId, 0 AS depth
+		UNION ALL SELECT C.ancestorId, C.depth FROM person_closure C WHERE C.descendantId = parentId) A
+	CROSS JOIN (SELECT childId AS descendantId, 0 AS depth
+		UNION ALL SELECT C.descendantId, C.depth FROM person_closure C WHERE C.ancestorId = childId) D
+	ON DUPLICATE KEY UPDATE depth = LEAST(person_closure.depth, VALUES(depth));
+END$$
+DELIMITER ;
+
+
+DROP PROCEDURE IF EXISTS `rebuild_personClosure`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `rebuild_personClosure`()
+BEGIN
+	DECLARE currentDepth INT DEFAULT 1;
+	DECLARE insertedRows INT DEFAULT 1;
+
+	DELETE FROM person_closure;
+	INSERT INTO person_closure(ancestorId, descendantId, depth)
+	SELECT PR.person1Id, PR.person2Id, 1 FROM person_relations PR WHERE PR.personRelationTypeId = 1;
+
+	/*One generation at a time, so the first pair inserted has the fewest generations.*/
+	WHILE insertedRows > 0 DO
+		INSERT IGNORE INTO person_closure(ancestorId, descendantId, depth)
+		SELECT C.ancestorId, PR.person2Id, C.depth + 1 FROM person_closure C
+		JOIN person_relations PR ON PR.person1Id = C.descendantId AND PR.personRelationTypeId = 1
+		WHERE C.depth = currentDepth;
+		SET insertedRows = ROW_COUNT();
+		SET currentDepth = currentDepth + 1;
+	END WHILE;
+END$$
+DELIMITER ;
+
+
 
 DELIMITER $$
 CREATE DEFINER=`root`@`localhost` PROCEDURE `find_person`(IN personNameValue VARCHAR(100))
@@ -722,11 +809,15 @@ END$$
 DELIMITER ;
 
 
+DROP PROCEDURE IF EXISTS `find_personById`;
+
 DELIMITER $$
 CREATE DEFINER=`root`@`localhost` PROCEDURE `find_personById`(IN personIdValue INT)
 BEGIN
 	SELECT P.personId, P.personName, G.genderName AS 'gender', P.dateOfBirth,
-    L1.locationName AS 'locationofbirth', P.dateOfDeath, L2.locationName AS 'locationofdeath', O.occupationName AS 'occupation'
+    L1.locationName AS 'locationofbirth', L1.city, L1.province, L1.country,
+    P.dateOfDeath, L2.locationName AS 'locationofdeath', L2.city, L2.province, L2.country,
+    O.occupationName AS 'occupation'
     FROM persons P
 	LEFT JOIN locations L1
 	ON P.locationOfBirthId = L1.locationId
@@ -749,11 +840,13 @@ BEGIN
 END$$
 DELIMITER ;
 
+DROP PROCEDURE IF EXISTS `find_mediaByPerson`;
+
 DELIMITER $$
 CREATE DEFINER=`root`@`localhost` PROCEDURE `find_mediaByPerson`(IN personIdValue INT, IN startDate DATE, IN endDate DATE)
 BEGIN
 	SELECT DISTINCT M.mediaId, M.mediaName, M.mediaLocation, M.dateOfPicture, 
-           L.locationName AS 'locationofpicture'
+           L.locationName AS 'locationofpicture', L.city, L.province, L.country
 	FROM persons_media PM
     INNER JOIN media M
     ON PM.mediaId = M.mediaId
@@ -778,3 +871,146 @@ DELIMITER ;
 
 
 
+
+DROP PROCEDURE IF EXISTS `get_genders`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `get_genders`()
+BEGIN
+	SELECT genderId, genderName FROM gender;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `get_occupations`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `get_occupations`()
+BEGIN
+	SELECT occupationId, occupationName FROM occupations;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `get_locations`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `get_locations`()
+BEGIN
+	SELECT locationId, locationName, city, province, country FROM locations;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `save_gender`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `save_gender`(IN genderValue VARCHAR(30), OUT out_ID INT)
+BEGIN
+	/*Check if gender already exists, if it does use its id.*/
+	SET out_ID = (SELECT genderId FROM gender WHERE genderName = genderValue LIMIT 1);
+	IF (out_ID IS NULL) THEN
+		BEGIN
+			INSERT INTO gender(`genderName`)
+			VALUES(genderValue);
+			SET out_ID = LAST_INSERT_ID();
+		END;
+	END IF;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `save_occupation`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `save_occupation`(IN occupationValue VARCHAR(100), OUT out_ID INT)
+BEGIN
+	/*Check if occupation already exists, if it does use its id.*/
+	SET out_ID = (SELECT occupationId FROM occupations WHERE occupationName = occupationValue LIMIT 1);
+	IF (out_ID IS NULL) THEN
+		BEGIN
+			INSERT INTO occupations(`occupationName`)
+			VALUES(occupationValue);
+			SET out_ID = LAST_INSERT_ID();
+		END;
+	END IF;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `save_location`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `save_location`(IN locationValue VARCHAR(200), IN cityValue VARCHAR(100),
+ IN provinceValue VARCHAR(100), IN countryValue VARCHAR(100), OUT out_ID INT)
+BEGIN
+	/*Check if location already exists, if it does update it and use its id.*/
+	SET out_ID = (SELECT locationId FROM locations WHERE locationName = locationValue LIMIT 1);
+	IF (out_ID IS NOT NULL) THEN
+		BEGIN
+			UPDATE locations L
+			SET L.city = cityValue,
+				L.province = provinceValue,
+				L.country = countryValue
+			WHERE L.locationId = out_ID;
+		END;
+	ELSE /*Creates a new location if does not exists already.*/
+		BEGIN
+			INSERT INTO locations(`locationName`, `city`, `province`, `country`)
+			VALUES(locationValue, cityValue, provinceValue, countryValue);
+			SET out_ID = LAST_INSERT_ID();
+		END;
+	END IF;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `update_personWithIds`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `update_personWithIds`(IN personIdValue INT,
+								  IN personNameValue VARCHAR(100),
+                                  IN genderIdValue INT,
+                                  IN dateOfBirthValue DATE,
+                                  IN locationOfBirthIdValue INT,
+                                  IN dateOfDeathValue DATE,
+                                  IN locationOfDeathIdValue INT,
+                                  IN occupationIdValue INT)
+BEGIN
+	UPDATE persons P
+SET 
+    P.personName = personNameValue,
+    P.genderId = genderIdValue,
+    P.dateOfBirth = dateOfBirthValue,
+    P.locationOfBirthId = locationOfBirthIdValue,
+    P.dateOfDeath = dateOfDeathValue,
+    P.locationOfDeathId = locationOfDeathIdValue,
+    P.occupationId = occupationIdValue
+WHERE
+    P.personId = personIdValue;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `update_mediaWithIds`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `update_mediaWithIds`(IN mediaIdValue INT, IN mediaNameValue VARCHAR(100),
+ IN mediaLocationValue VARCHAR(1000), IN dateOfPictureValue DATE, IN locationOfPictureIdValue INT)
+BEGIN
+	UPDATE media M 
+SET 
+    M.mediaLocation = mediaLocationValue,
+    M.mediaName = mediaNameValue,
+    M.dateOfPicture = dateOfPictureValue,
+    M.locationOfPictureId = locationOfPictureIdValue
+WHERE
+    M.mediaId = mediaIdValue;
+END$$
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `is_mediaExists`;
+
+DELIMITER $$
+CREATE DEFINER=`root`@`localhost` PROCEDURE `is_mediaExists`(IN mediaIdValue INT, OUT out_ID INT)
+BEGIN
+	IF EXISTS(SELECT 1 FROM media WHERE mediaId = mediaIdValue) THEN
+		SET out_ID = 1;
+	ELSE 
+		SET out_ID = -1;
+	END IF;
+END$$
+DELIMITER ;
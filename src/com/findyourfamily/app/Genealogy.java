@@ -4,16 +4,23 @@ import com.findyourfamily.app.common.filehandling.FileUtility;
 import com.findyourfamily.app.common.mappers.FileIdentityMapper;
 import com.findyourfamily.app.common.mappers.PersonIdentityMapper;
 import com.findyourfamily.app.models.domain.*;
+import com.findyourfamily.app.business.cache.ExistenceIndex;
+import com.findyourfamily.app.business.cache.RelationCache;
+import com.findyourfamily.app.business.familytree.AncestorIndex;
+import com.findyourfamily.app.business.familytree.FamilyGraph;
 import com.findyourfamily.app.business.familytree.FamilyTree;
-import com.findyourfamily.app.business.familytree.IFamilyTree;
+import com.findyourfamily.app.business.familytree.ParallelTraversal;
 import com.findyourfamily.app.business.mediaarchive.IMediaArchive;
 import com.findyourfamily.app.business.mediaarchive.MediaArchive;
 import com.findyourfamily.app.business.reporting.IReport;
 import com.findyourfamily.app.business.reporting.Report;
+import com.findyourfamily.app.common.config.AppConfiguration;
 
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * Wrapper type for managing find your family app.
@@ -23,26 +30,43 @@ import java.util.*;
  * date, persons in the media etc.
  * 3. It can be used to fetch the information related to persons, media and relations between
  * persons.
+ * A single instance can be shared by concurrent callers, traversals keep their state on the stack.
  */
 public class Genealogy {
 
-    //Type for recording information related to persons.
-    private IFamilyTree familyTree;
+    //Type for recording information related to persons, kept as the implementation for its family graph and indexes.
+    private final FamilyTree familyTree;
 
     //Type for recording information related to media.
-    private IMediaArchive mediaArchive;
+    private final IMediaArchive mediaArchive;
 
     //Type for reporting information related to persons and media.
-    private IReport report;
+    private final IReport report;
 
-    private Set<Integer> roots;
+    //Property enabling the recursive query for persons not loaded inside the family graph.
+    private static final String recursiveQueryProperty = "traversal.recursiveQuery";
 
-    private Set<Integer> nodesCovered;
+    //Number of times the ancestors of a person are loaded again when they change while being indexed.
+    private static final int INDEXATTEMPTS = 3;
+
+    //True if descendants and ancestors of persons not loaded are computed inside the external source.
+    private final boolean isRecursiveQueryEnabled;
+
+    //Properties enabling the parallel traversal of the family graph, and the generation size it starts from.
+    private static final String parallelTraversalProperty = "traversal.parallel";
+    private static final String parallelThresholdProperty = "traversal.parallelThreshold";
+
+    //Traversal expanding large generations on many threads, null when disabled.
+    private final ParallelTraversal parallelTraversal;
 
     public Genealogy() {
         familyTree = new FamilyTree();
         mediaArchive = new MediaArchive();
         report = new Report();
+        isRecursiveQueryEnabled = AppConfiguration.getBoolean(recursiveQueryProperty, true);
+        parallelTraversal = AppConfiguration.getBoolean(parallelTraversalProperty, false)
+                ? new ParallelTraversal(ForkJoinPool.commonPool(), AppConfiguration.getInt(parallelThresholdProperty, 2048))
+                : null;
     }
 
     /**
@@ -67,6 +91,65 @@ public class Genealogy {
         return piExternal;
     }
 
+    /**
+     * Adds persons to the external source with the given names inside a single transaction.
+     * Duplicate names can be recorded with new entry created for each record.
+     *
+     * @param names
+     * @return Person Identity types in the order of the names
+     * @throws IOException
+     */
+    public List<PersonIdentity> addPersons(List<String> names) throws IOException {
+        //Throw exception for illegal argument when names are null or any of the name is null or blank.
+        if (names == null)
+            throw new IllegalArgumentException("Names cannot be null.");
+        for (var name : names) {
+            if (name == null || name.isBlank())
+                throw new IllegalArgumentException("Name cannot be null or empty.");
+        }
+
+        var piExternalList = new ArrayList<PersonIdentity>(names.size());
+        if (names.size() == 0)
+            return piExternalList;
+
+        //Maps the internal representation objects to be returned externally.
+        for (var piInternal : familyTree.addPersons(names)) {
+            piExternalList.add(PersonIdentityMapper.mapInternalPIToExternal(piInternal));
+        }
+        return piExternalList;
+    }
+
+    /**
+     * Adds persons to the external source reading the names in chunks, so that very large inputs
+     * are never held in memory at once. Each chunk is saved in its own transaction and handed
+     * to the consumer once saved.
+     *
+     * @param names
+     * @param chunkSize
+     * @param consumer receives the Person Identity types of every saved chunk, in the order of the names.
+     * @return number of persons added.
+     * @throws IOException
+     */
+    public int addPersons(Iterator<String> names, int chunkSize, Consumer<List<PersonIdentity>> consumer) throws IOException {
+        if (names == null || consumer == null)
+            throw new IllegalArgumentException("Names or consumer cannot be null.");
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be greater than 0.");
+
+        int count = 0;
+        var chunk = new ArrayList<String>(chunkSize);
+        while (names.hasNext()) {
+            chunk.add(names.next());
+            if (chunk.size() == chunkSize || !names.hasNext()) {
+                var persons = addPersons(chunk);
+                count += persons.size();
+                consumer.accept(persons);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        return count;
+    }
+
     /**
      * Record attributes against a given person in the external source.
      * Predefined attributes inside PersonIdentity type will be updated, and
@@ -316,6 +399,23 @@ public class Genealogy {
         return report.findName(id);
     }
 
+    /**
+     * Finds the names corresponding to the persons' ids.
+     *
+     * @param ids
+     * @return names by person id, ids not present in the system are left out.
+     * @throws IOException
+     */
+    public Map<Integer, String> findNames(Set<Integer> ids) throws IOException {
+        if (ids == null)
+            throw new IllegalArgumentException("Ids cannot be null.");
+        for (var id : ids) {
+            if (id == null || id <= 0)
+                throw new IllegalArgumentException("Id cannot be less than 1.");
+        }
+        return report.findNames(ids);
+    }
+
     /**
      * Returns list of notes and references for a given person with all attributes set as false.
      *
@@ -360,37 +460,64 @@ public class Genealogy {
     }
 
     /**
-     * Finds the relation between person 1 and person 2 using recursion
-     * backtracking
+     * Finds the relation between person 1 and person 2 through their closest common ancestor,
+     * using the index of the ancestors of the persons. Persons not connected by blood or marriage
+     * are answered as not related without looking for their ancestors.
      * @param person1
      * @param person2
      * @return biological relation containing cousinship and degree of removal.
      */
     public BiologicalRelation findRelation(PersonIdentity person1, PersonIdentity person2) {
-        roots = new HashSet<>();
-        nodesCovered = new HashSet<>();
-        findRoot(familyTree, person1.getPersonId(), false);
-        findRoot(familyTree, person2.getPersonId(), true);
-
-        var personRelationsMap = ((FamilyTree) familyTree).getPersonsMap();
+        if (person1 == null || person2 == null)
+            throw new IllegalArgumentException("Invalid person passed.");
 
-        if (roots.size() == 0)
+        //Persons in different groups share no ancestor, known only when the cluster index holds all the relations.
+        if (familyTree.isClusterIndexComplete()
+                && !familyTree.getClusterIndex().isConnected(person1.getPersonId(), person2.getPersonId()))
             return new BiologicalRelation(-1, -1);
 
-        int person1Index = -1;
-        int person2Index = -1;
-        for (var root : roots) {
-            person1Index = root == person1.getPersonId() ? 0 : findPositionOfNode(root, personRelationsMap, person1.getPersonId(), 1);
-            person2Index = root == person2.getPersonId() ? 0 : findPositionOfNode(root, personRelationsMap, person2.getPersonId(), 1);
-            if (person1Index != -1 && person2Index != -1)
-                break;
-        }
+        //Relations found before are kept until the ancestors of one of the persons change.
+        var relationCache = getRelationCache();
+        var relation = relationCache.get(person1.getPersonId(), person2.getPersonId());
+        if (relation != null)
+            return relation;
 
-        int counsinship = person1Index == person2Index ? 0 : ((person1Index == -1 || person2Index == -1) ? -1 : Math.min(person1Index, person2Index) - 1);
-        int removal = (person1Index == -1 || person2Index == -1) ? -1 : Math.abs(person1Index - person2Index);
-        var biologicalRelation = new BiologicalRelation(counsinship, removal);
+        //Relation computed from ancestors changed meanwhile is not cached.
+        var epoch = relationCache.getEpoch();
 
-        return biologicalRelation;
+        var ancestorIndex = getAncestorIndex();
+        indexAncestors(ancestorIndex, person1.getPersonId());
+        indexAncestors(ancestorIndex, person2.getPersonId());
+
+        relation = ancestorIndex.findRelation(person1.getPersonId(), person2.getPersonId());
+        relationCache.put(person1.getPersonId(), person2.getPersonId(), relation, epoch);
+        return relation;
+    }
+
+    /**
+     * Finds the group of persons connected to the person by blood or marriage, with its id and size.
+     * The whole family graph is loaded first when it is not loaded yet, as the groups need all the relations.
+     * @param person
+     * @return family cluster of the person.
+     * @throws IOException
+     */
+    public FamilyCluster findFamilyCluster(PersonIdentity person) throws IOException {
+        if (person == null)
+            throw new IllegalArgumentException("Invalid person passed.");
+        if (person.getPersonId() <= 0)
+            throw new IllegalArgumentException("Id cannot be less than 1.");
+        if (!ExistenceIndex.getPersonIndex().isExists(person.getPersonId()))
+            throw new IllegalArgumentException("Person does not exist in the system.");
+
+        if (!familyTree.isClusterIndexComplete() && !familyTree.preloadGraph())
+            throw new IOException("Unable to connect to the database.");
+
+        //Id and size are read together, so that a group joined meanwhile does not mix them.
+        var clusterIndex = familyTree.getClusterIndex();
+        synchronized (clusterIndex) {
+            return new FamilyCluster(clusterIndex.getClusterId(person.getPersonId()),
+                    clusterIndex.getClusterSize(person.getPersonId()));
+        }
     }
 
     /**
@@ -400,26 +527,12 @@ public class Genealogy {
      * @return
      */
     public Set<PersonIdentity> descendants(PersonIdentity person, Integer generations) {
-        int currentGeneration = 0;
-        var personsMap = ((FamilyTree) familyTree).getPersonsMap();
-
-        Set<Integer> descendantIds = new HashSet<>();
-
-        Queue<Integer> queue = new PriorityQueue<>();
-        queue.add(person.getPersonId());
-        while (currentGeneration < generations) {
-            var findPerson = personsMap.get(queue.peek());
-            if (findPerson == null) {
-                findPerson = report.findPersonRelations(queue.peek());
-                ((FamilyTree) familyTree).addToPersonsMap(queue.poll(), findPerson);
-            }
+        if (person == null)
+            throw new IllegalArgumentException("Invalid person pased.");
+        if (generations < 0)
+            throw new IllegalArgumentException("Invalid generations passed.");
 
-            for (var child : findPerson.getChildren()) {
-                descendantIds.add(child.getPersonId());
-                queue.add(child.getPersonId());
-            }
-            currentGeneration++;
-        }
+        var descendantIds = findRelativeIds(person.getPersonId(), generations, true);
 
         //Go and fetch data for all the personid's
         var persons = report.findPersons(descendantIds);
@@ -445,26 +558,7 @@ public class Genealogy {
             throw new IllegalArgumentException("Invalid person pased.");
         if (generations < 0)
             throw new IllegalArgumentException("Invalid generations passed.");
-        int currentGeneration = 0;
-        var personsMap = ((FamilyTree) familyTree).getPersonsMap();
-
-        Set<Integer> ascendantIds = new HashSet<>();
-
-        Queue<Integer> queue = new PriorityQueue<>();
-        queue.add(person.getPersonId());
-        while (currentGeneration < generations) {
-            var findPerson = personsMap.get(queue.peek());
-            if (findPerson == null) {
-                findPerson = report.findPersonRelations(queue.peek());
-                ((FamilyTree) familyTree).addToPersonsMap(queue.poll(), findPerson);
-            }
-
-            for (var parent : findPerson.getParents()) {
-                ascendantIds.add(parent.getPersonId());
-                queue.add(parent.getPersonId());
-            }
-            currentGeneration++;
-        }
+        var ascendantIds = findRelativeIds(person.getPersonId(), generations, false);
 
         //Go and fetch data for all the personid's
         var persons = report.findPersons(ascendantIds);
@@ -569,27 +663,8 @@ public class Genealogy {
         if (person == null)
             throw new IllegalArgumentException("Person cannot be null .");
 
-        //Gets the persons map from the family tree.
-        var personsMap = ((FamilyTree) familyTree).getPersonsMap();
-
-        var descendantIds = new HashSet<Integer>();
-
-        //Find the given person inside the persons map.
-        var findPerson = personsMap.get(person.getPersonId());
-
-        //If person is not present inside the map, fetch it from the database. If it is not present,
-        //throw exception
-        if (findPerson == null) {
-            findPerson = report.findPersonRelations(person.getPersonId());
-            if (findPerson == null)
-                throw new IllegalArgumentException("Person does not exist in the system.");
-            ((FamilyTree) familyTree).addToPersonsMap(person.getPersonId(), findPerson);
-        }
-
-        //Find all the descendants of the current person.
-        for (var child : findPerson.getChildren()) {
-            descendantIds.add(child.getPersonId());
-        }
+        //Find all the children of the current person.
+        var descendantIds = findRelativeIds(person.getPersonId(), 1, true);
 
         //If no descendants exists return empty list.
         if (descendantIds.size() == 0)
@@ -606,75 +681,134 @@ public class Genealogy {
     }
 
     /**
-     * Finds all the ancestors of the current person passed.
-     * @param familyTree
+     * Indexes the ancestors of the person when they are not indexed yet, loading all of them inside the graph first.
+     * Ancestors added by a concurrent write after the load are loaded by the next attempt.
+     *
+     * @param ancestorIndex
      * @param personId
-     * @param checkForRoot
      */
-    private void findRoot(IFamilyTree familyTree, int personId, boolean checkForRoot) {
-
-        //Gets the persons map from the family tree.
-        var personsMap = ((FamilyTree) familyTree).getPersonsMap();
-
-        //Find the given person inside the persons map.
-        var findPerson = personsMap.get(personId);
+    private void indexAncestors(AncestorIndex ancestorIndex, int personId) {
+        for (int attempt = 0; attempt < INDEXATTEMPTS; attempt++) {
+            if (ancestorIndex.isIndexed(personId))
+                return;
+            findRelatives(personId, Integer.MAX_VALUE, false);
+            if (ancestorIndex.index(personId))
+                return;
+        }
+        throw new IllegalStateException("Ancestors of the person keep changing, unable to find the relation.");
+    }
 
-        //If person is not present inside the map, fetch it from the database. If it is not present,
-        //throw exception
-        if (findPerson == null) {
-            findPerson = report.findPersonRelations(personId);
-            if (findPerson == null)
+    /**
+     * Finds the descendants or ancestors of a person up to the given generations. Persons already loaded inside
+     * the family graph are traversed in memory, expanding large generations on many threads when the parallel
+     * traversal is enabled. Others are found with a single recursive query inside the external source so that
+     * the graph is not filled for a one-off traversal.
+     *
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @return ids of the relatives found.
+     * @throws IllegalArgumentException when the person does not exist.
+     */
+    private Set<Integer> findRelativeIds(int personId, int generations, boolean isDescendants) {
+        //Recursive query and the loads find no relatives for an unknown person, so it is rejected first.
+        try {
+            if (!ExistenceIndex.getPersonIndex().isExists(personId))
                 throw new IllegalArgumentException("Person does not exist in the system.");
-            ((FamilyTree) familyTree).addToPersonsMap(personId, findPerson);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Unable to connect to the database.");
         }
 
-        //If the end of the root is reached add it to the list.
-        if (findPerson.getParents() == null || findPerson.getParents().size() == 0)
-            roots.add(findPerson.getPersonId());
+        if (isRecursiveQueryEnabled && !getFamilyGraph().isLoaded(personId)) {
+            var relatives = report.findRelatives(personId, generations, isDescendants);
 
-        for (var parentId : findPerson.getParents()) {
-            if (checkForRoot) {
-                if (nodesCovered.contains(parentId.getPersonId())) {
-                    roots = new HashSet<>();
-                    roots.add(parentId.getPersonId());
-                    return;
-                }
-            } else
-                nodesCovered.add(parentId.getPersonId());
-            findRoot(familyTree, parentId.getPersonId(), checkForRoot);
+            //If the query fails, traverse the family graph instead.
+            if (relatives != null)
+                return new HashSet<>(relatives.keySet());
         }
-
-
-        return;
+        if (parallelTraversal != null)
+            return parallelTraversal.findRelatives(getFamilyGraph(), personId, generations, isDescendants,
+                    familyTree::loadPersons);
+        return findRelatives(personId, generations, isDescendants);
     }
 
     /**
-     * Finds the position of person in the family tree.
+     * Finds the descendants or ancestors of a person up to the given generations, one generation at a time.
+     * Every person is expanded only once, and the relations of each generation are loaded with a single round trip.
      *
-     * @param root
-     * @param personRelationsMap
      * @param personId
-     * @param currentIndex
-     * @return
+     * @param generations
+     * @param isDescendants
+     * @return ids of the relatives found.
      */
-    private int findPositionOfNode(int root, Map<Integer, PersonRelations> personRelationsMap, int personId, int currentIndex) {
-        var currentNode = personRelationsMap.get(root);
+    private Set<Integer> findRelatives(int personId, int generations, boolean isDescendants) {
+        var familyGraph = getFamilyGraph();
+        Set<Integer> relativeIds = new HashSet<>();
+
+        var visited = new BitSet();
+        visited.set(personId);
+        int[] frontier = {personId};
+        int frontierSize = 1;
+
+        for (int generation = 0; generation < generations && frontierSize > 0; generation++) {
+            var nextFrontier = new int[Math.max(4, frontierSize * 2)];
+            int nextFrontierSize = 0;
+
+            //Relations of the whole generation missing from the graph are read together.
+            var frontierIds = new HashSet<Integer>();
+            for (int frontierIndex = 0; frontierIndex < frontierSize; frontierIndex++) {
+                frontierIds.add(frontier[frontierIndex]);
+            }
+            if (!familyTree.loadPersons(frontierIds))
+                throw new IllegalArgumentException("Person does not exist in the system.");
 
-        //Find the given person inside the persons map.
-        currentNode = personRelationsMap.get(root);
+            //Generation is read from a single version of the graph, without locking it.
+            var snapshot = familyGraph.getSnapshot();
+            for (int frontierIndex = 0; frontierIndex < frontierSize; frontierIndex++) {
+                var currentId = frontier[frontierIndex];
+
+                var relatives = isDescendants ? snapshot.getChildren(currentId) : snapshot.getParents(currentId);
+                for (var relativeId : relatives) {
+                    if (visited.get(relativeId))
+                        continue;
+                    visited.set(relativeId);
+                    relativeIds.add(relativeId);
+
+                    if (nextFrontierSize == nextFrontier.length)
+                        nextFrontier = Arrays.copyOf(nextFrontier, nextFrontierSize * 2);
+                    nextFrontier[nextFrontierSize++] = relativeId;
+                }
+            }
+            frontier = nextFrontier;
+            frontierSize = nextFrontierSize;
+        }
+        return relativeIds;
+    }
 
-        if (currentNode == null)
-            return -1;
-        if (currentNode.getPersonId() == personId || (currentNode.getChildren() != null && currentNode.getChildren().stream().anyMatch(x -> x.getPersonId() == personId)))
-            return currentIndex;
+    /**
+     * Gets the cache of the relations between persons, with its hit, eviction and invalidation statistics.
+     *
+     * @return relation cache.
+     */
+    public RelationCache getRelationCache() {
+        return familyTree.getRelationCache();
+    }
 
-        currentIndex++;
-        for (var newRoot : currentNode.getChildren()) {
-            int index = findPositionOfNode(newRoot.getPersonId(), personRelationsMap, personId, currentIndex);
-            if (index != -1)
-                return index;
-        }
+    /**
+     * Gets the index of the ancestors of the persons.
+     *
+     * @return ancestor index.
+     */
+    private AncestorIndex getAncestorIndex() {
+        return familyTree.getAncestorIndex();
+    }
 
-        return -1;
+    /**
+     * Gets the graph storing the relations of the persons.
+     *
+     * @return family graph.
+     */
+    private FamilyGraph getFamilyGraph() {
+        return familyTree.getFamilyGraph();
     }
 }
@@ -0,0 +1,151 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.familytree.AncestorIndex;
+import com.findyourfamily.app.business.familytree.FamilyGraph;
+import com.findyourfamily.app.models.domain.BiologicalRelation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AncestorIndexTests {
+
+    private FamilyGraph familyGraph;
+    private AncestorIndex ancestorIndex;
+
+    /**
+     * Builds the family used by the tests, with all the persons loaded:
+     * 1 and 2 are the parents of 3 and 4, 3 and 5 are the parents of 6, 4 and 7 are the parents of 8,
+     * 6 is the parent of 9, 11 is the parent of 5 and 12.
+     */
+    @BeforeEach()
+    void intitalize() {
+        familyGraph = new FamilyGraph();
+        familyGraph.batch(() -> {
+            addChildren(1, 3, 4);
+            addChildren(2, 3, 4);
+            addChildren(3, 6);
+            addChildren(5, 6);
+            addChildren(4, 8);
+            addChildren(7, 8);
+            addChildren(6, 9);
+            addChildren(11, 5, 12);
+            var personIds = new BitSet();
+            personIds.set(1, 14);
+            familyGraph.markLoaded(personIds);
+        });
+        ancestorIndex = new AncestorIndex(familyGraph);
+    }
+
+    @Test()
+    void ShouldFindSiblings() {
+        assertRelation(0, 0, 3, 4);
+    }
+
+    @Test()
+    void ShouldFindFirstCousins() {
+        assertRelation(1, 0, 6, 8);
+    }
+
+    @Test()
+    void ShouldFindRemovedCousins() {
+        assertRelation(1, 1, 9, 8);
+        assertRelation(1, 1, 8, 9);
+    }
+
+    @Test()
+    void ShouldFindDirectLine() {
+        assertRelation(-1, 1, 3, 6);
+        assertRelation(-1, 3, 1, 9);
+        assertEquals(1, ancestorIndex.getLowestCommonAncestor(1, 9));
+    }
+
+    @Test()
+    void ShouldFindSamePerson() {
+        assertRelation(0, 0, 9, 9);
+    }
+
+    @Test()
+    void ShouldFindUnrelatedPersons() {
+        assertRelation(-1, -1, 5, 7);
+        assertRelation(-1, -1, 8, 13);
+    }
+
+    @Test()
+    void ShouldFindRelationThroughBothParents() {
+        //6 is related to the family of 3 and to the family of 5.
+        assertRelation(1, 0, 6, 8);
+        assertRelation(0, 1, 6, 12);
+        assertEquals(11, ancestorIndex.getLowestCommonAncestor(6, 12));
+    }
+
+    @Test()
+    void ShouldMergeAncestorsOfNewParent() {
+        assertTrue(ancestorIndex.index(9));
+        assertTrue(ancestorIndex.index(13));
+
+        familyGraph.addChild(13, 5);
+        var changedIds = ancestorIndex.addChild(13, 5);
+
+        assertTrue(changedIds.get(5) && changedIds.get(6) && changedIds.get(9));
+        assertFalse(changedIds.get(8));
+        assertTrue(ancestorIndex.isIndexed(9));
+        assertEquals(13, ancestorIndex.getLowestCommonAncestor(9, 13));
+        assertRelation(-1, 3, 13, 9);
+    }
+
+    @Test()
+    void ShouldRemoveDescendantsOfParentNotIndexed() {
+        assertTrue(ancestorIndex.index(9));
+        assertTrue(ancestorIndex.index(8));
+
+        familyGraph.addChild(13, 5);
+        ancestorIndex.addChild(13, 5);
+
+        assertFalse(ancestorIndex.isIndexed(5));
+        assertFalse(ancestorIndex.isIndexed(6));
+        assertFalse(ancestorIndex.isIndexed(9));
+        assertTrue(ancestorIndex.isIndexed(8));
+        assertRelation(-1, 3, 13, 9);
+    }
+
+    @Test()
+    void ShouldNotIndexWhenAncestorNotLoaded() {
+        familyGraph.addChild(20, 21);
+        var personIds = new BitSet();
+        personIds.set(21);
+        familyGraph.markLoaded(personIds);
+
+        assertFalse(ancestorIndex.index(21));
+        assertFalse(ancestorIndex.isIndexed(21));
+        assertFalse(ancestorIndex.isIndexed(20));
+
+        personIds.set(20);
+        familyGraph.markLoaded(personIds);
+        assertTrue(ancestorIndex.index(21));
+    }
+
+    private void addChildren(int parentId, int... childIds) {
+        for (var childId : childIds) {
+            familyGraph.addChild(parentId, childId);
+        }
+    }
+
+    /**
+     * Indexes both the persons and checks the relation found between them.
+     *
+     * @param cousinship
+     * @param levelOfRemoval
+     * @param person1Id
+     * @param person2Id
+     */
+    private void assertRelation(int cousinship, int levelOfRemoval, int person1Id, int person2Id) {
+        assertTrue(ancestorIndex.index(person1Id));
+        assertTrue(ancestorIndex.index(person2Id));
+        BiologicalRelation relation = ancestorIndex.findRelation(person1Id, person2Id);
+        assertEquals(cousinship, relation.getCousinship());
+        assertEquals(levelOfRemoval, relation.getLevelOfRemoval());
+    }
+}
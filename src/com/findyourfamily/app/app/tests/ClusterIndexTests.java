@@ -0,0 +1,71 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.familytree.ClusterIndex;
+import com.findyourfamily.app.business.familytree.FamilyGraph;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterIndexTests {
+
+    private ClusterIndex clusterIndex;
+
+    @BeforeEach()
+    void intitalize() {
+        clusterIndex = new ClusterIndex();
+    }
+
+    @Test()
+    void ShouldJoinGroups() {
+        clusterIndex.union(1, 2);
+        clusterIndex.union(3, 4);
+        assertTrue(clusterIndex.isConnected(1, 2));
+        assertFalse(clusterIndex.isConnected(1, 3));
+        assertEquals(2, clusterIndex.getClusterSize(4));
+
+        clusterIndex.union(2, 3);
+        assertTrue(clusterIndex.isConnected(1, 4));
+        assertEquals(clusterIndex.getClusterId(1), clusterIndex.getClusterId(4));
+        assertEquals(4, clusterIndex.getClusterSize(3));
+    }
+
+    @Test()
+    void ShouldKeepGroupWhenJoinedAgain() {
+        clusterIndex.union(1, 2);
+        clusterIndex.union(2, 1);
+        assertEquals(2, clusterIndex.getClusterSize(1));
+    }
+
+    @Test()
+    void ShouldTreatUnknownPersonAsSingleton() {
+        clusterIndex.union(1, 2);
+        assertEquals(5, clusterIndex.getClusterId(5));
+        assertEquals(1, clusterIndex.getClusterSize(5));
+        assertEquals(2_000_000_000, clusterIndex.getClusterId(2_000_000_000));
+        assertEquals(1, clusterIndex.getClusterSize(2_000_000_000));
+        assertFalse(clusterIndex.isConnected(1, 2_000_000_000));
+        assertTrue(clusterIndex.isConnected(2_000_000_000, 2_000_000_000));
+    }
+
+    @Test()
+    void ShouldRejectInvalidId() {
+        assertThrows(IllegalArgumentException.class, () -> clusterIndex.getClusterId(0));
+    }
+
+    @Test()
+    void ShouldBuildFromGraph() {
+        var familyGraph = new FamilyGraph();
+        familyGraph.addChild(1, 2);
+        familyGraph.setPartner(1, 3);
+        familyGraph.setPartner(4, 5);
+        familyGraph.dissolvePartner(4, 5);
+        familyGraph.addChild(6, 7);
+
+        var builtIndex = ClusterIndex.build(familyGraph.getSnapshot());
+        assertTrue(builtIndex.isConnected(2, 3));
+        assertEquals(3, builtIndex.getClusterSize(1));
+        assertTrue(builtIndex.isConnected(4, 5));
+        assertFalse(builtIndex.isConnected(1, 6));
+    }
+}
@@ -0,0 +1,92 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.familytree.FamilyGraph;
+import com.findyourfamily.app.business.familytree.GraphSnapshotFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphSnapshotFileTests {
+
+    private Path directory;
+    private Path snapshotPath;
+
+    @BeforeEach()
+    void intitalize() throws IOException {
+        directory = Files.createTempDirectory("familygraph");
+        snapshotPath = directory.resolve("familygraph.snapshot");
+    }
+
+    @AfterEach()
+    void cleanUp() throws IOException {
+        try (var paths = Files.list(directory)) {
+            for (var path : paths.toList()) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test()
+    void ShouldReadWrittenGraph() throws IOException {
+        var familyGraph = new FamilyGraph();
+        familyGraph.batch(() -> {
+            familyGraph.addChild(1, 3);
+            familyGraph.addChild(2, 3);
+            familyGraph.addChild(3, 1500);
+            familyGraph.setPartner(1, 2);
+            familyGraph.setPartner(3, 4);
+            familyGraph.dissolvePartner(3, 4);
+            familyGraph.setPartner(3, 5);
+            var personIds = new BitSet();
+            personIds.set(1, 6);
+            personIds.set(1500);
+            personIds.set(2000);
+            familyGraph.markLoaded(personIds);
+        });
+
+        GraphSnapshotFile.write(snapshotPath, familyGraph.getSnapshot(), 42);
+        var readGraph = new FamilyGraph();
+        assertEquals(42, GraphSnapshotFile.read(snapshotPath, readGraph));
+
+        var written = familyGraph.getSnapshot();
+        var read = readGraph.getSnapshot();
+        assertEquals(written.getLoadedCount(), read.getLoadedCount());
+        for (int personId = 1; personId <= written.getMaxPersonId(); personId++) {
+            assertEquals(written.isLoaded(personId), read.isLoaded(personId));
+            assertArrayEquals(written.getParents(personId), read.getParents(personId));
+            assertArrayEquals(written.getChildren(personId), read.getChildren(personId));
+            assertArrayEquals(written.getPreviousPartners(personId), read.getPreviousPartners(personId));
+            assertEquals(written.getPartner(personId), read.getPartner(personId));
+        }
+        assertArrayEquals(new int[]{4}, read.getPreviousPartners(3));
+        assertEquals(5, read.getPartner(3));
+    }
+
+    @Test()
+    void ShouldLeaveOnlySnapshotFile() throws IOException {
+        var familyGraph = new FamilyGraph();
+        familyGraph.addChild(1, 2);
+        GraphSnapshotFile.write(snapshotPath, familyGraph.getSnapshot(), 1);
+        GraphSnapshotFile.write(snapshotPath, familyGraph.getSnapshot(), 2);
+
+        try (var paths = Files.list(directory)) {
+            assertEquals(1, paths.count());
+        }
+        assertEquals(2, GraphSnapshotFile.read(snapshotPath, new FamilyGraph()));
+    }
+
+    @Test()
+    void ShouldRejectInvalidFile() throws IOException {
+        Files.write(snapshotPath, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20,
+                21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32});
+        assertThrows(IOException.class, () -> GraphSnapshotFile.read(snapshotPath, new FamilyGraph()));
+    }
+}
@@ -0,0 +1,89 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.familytree.FamilyGraph;
+import com.findyourfamily.app.business.familytree.ParallelTraversal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the single threaded and the parallel traversal of the descendants of a founding ancestor, over an
+ * in-memory family graph of a large lineage. No external source is needed.
+ * Arguments: children per person, generations, sequential threshold, runs.
+ */
+public class ParallelTraversalBenchmark {
+
+    public static void main(String[] args) {
+        var childrenPerPerson = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        var generations = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        var threshold = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+        var runs = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+
+        var familyGraph = buildLineage(childrenPerPerson, generations);
+        System.out.println("Lineage of " + familyGraph.getLoadedCount() + " persons, "
+                + ForkJoinPool.commonPool().getParallelism() + " workers.");
+
+        var sequential = new ParallelTraversal(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        var parallel = new ParallelTraversal(ForkJoinPool.commonPool(), threshold);
+
+        var sequentialTime = measure(sequential, familyGraph, generations, runs);
+        var parallelTime = measure(parallel, familyGraph, generations, runs);
+        System.out.printf("Single threaded: %.2f ms, parallel: %.2f ms, speedup %.2fx.%n",
+                sequentialTime, parallelTime, sequentialTime / parallelTime);
+    }
+
+    /**
+     * Builds a lineage where every person has the same number of children, starting from person 1.
+     *
+     * @param childrenPerPerson
+     * @param generations
+     * @return graph with all the persons loaded.
+     */
+    private static FamilyGraph buildLineage(int childrenPerPerson, int generations) {
+        var familyGraph = new FamilyGraph();
+        var personIds = new BitSet();
+        familyGraph.batch(() -> {
+            int nextId = 2;
+            int generationStart = 1, generationEnd = 2;
+            personIds.set(1);
+            for (int generation = 0; generation < generations; generation++) {
+                for (int parentId = generationStart; parentId < generationEnd; parentId++) {
+                    for (int child = 0; child < childrenPerPerson; child++) {
+                        personIds.set(nextId);
+                        familyGraph.addChild(parentId, nextId++);
+                    }
+                }
+                generationStart = generationEnd;
+                generationEnd = nextId;
+            }
+            familyGraph.markLoaded(personIds);
+        });
+        return familyGraph;
+    }
+
+    /**
+     * Runs the traversal of all the descendants of the founder, and gives the median time of the runs
+     * after the first ones used to warm up.
+     *
+     * @param traversal
+     * @param familyGraph
+     * @param generations
+     * @param runs
+     * @return median time in milliseconds.
+     */
+    private static double measure(ParallelTraversal traversal, FamilyGraph familyGraph, int generations, int runs) {
+        var times = new double[runs];
+        int descendantCount = 0;
+        for (int run = -runs / 2; run < runs; run++) {
+            var startTime = System.nanoTime();
+            descendantCount = traversal.findRelatives(familyGraph, 1, generations, true, ids -> true).size();
+            if (run >= 0)
+                times[run] = (System.nanoTime() - startTime) / 1e6;
+        }
+        if (descendantCount != familyGraph.getLoadedCount() - 1)
+            throw new IllegalStateException("Descendants missing from the traversal.");
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+}
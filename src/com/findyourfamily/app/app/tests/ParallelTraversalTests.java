@@ -0,0 +1,78 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.familytree.FamilyGraph;
+import com.findyourfamily.app.business.familytree.ParallelTraversal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelTraversalTests {
+
+    private FamilyGraph familyGraph;
+
+    /**
+     * Builds a lineage where every person has 2 children, person 1 is the founder and the children of a
+     * person p are 2p and 2p + 1. Person 4 has a second parent, 200.
+     */
+    @BeforeEach()
+    void intitalize() {
+        familyGraph = new FamilyGraph();
+        familyGraph.batch(() -> {
+            for (int parentId = 1; parentId < 64; parentId++) {
+                familyGraph.addChild(parentId, parentId * 2);
+                familyGraph.addChild(parentId, parentId * 2 + 1);
+            }
+            familyGraph.addChild(200, 4);
+            var personIds = new BitSet();
+            personIds.set(1, 128);
+            personIds.set(200);
+            familyGraph.markLoaded(personIds);
+        });
+    }
+
+    @Test()
+    void ShouldFindSameDescendantsOnOneOrManyThreads() {
+        var sequential = new ParallelTraversal(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        var parallel = new ParallelTraversal(ForkJoinPool.commonPool(), 2);
+
+        var expectedIds = new HashSet<Integer>();
+        for (int personId = 2; personId < 16; personId++) {
+            expectedIds.add(personId);
+        }
+        assertEquals(expectedIds, sequential.findRelatives(familyGraph, 1, 3, true, ids -> true));
+        assertEquals(expectedIds, parallel.findRelatives(familyGraph, 1, 3, true, ids -> true));
+        assertEquals(126, parallel.findRelatives(familyGraph, 1, 10, true, ids -> true).size());
+    }
+
+    @Test()
+    void ShouldFindAncestorsThroughBothParents() {
+        var traversal = new ParallelTraversal(ForkJoinPool.commonPool(), 1);
+        assertEquals(Set.of(4, 200, 2, 1), traversal.findRelatives(familyGraph, 8, 3, false, ids -> true));
+    }
+
+    @Test()
+    void ShouldLoadMissingPersons() {
+        familyGraph.unload(3);
+        var loadedIds = new HashSet<Integer>();
+        var traversal = new ParallelTraversal(ForkJoinPool.commonPool(), 1);
+        traversal.findRelatives(familyGraph, 1, 2, true, ids -> {
+            loadedIds.addAll(ids);
+            return true;
+        });
+        assertEquals(Set.of(3), loadedIds);
+    }
+
+    @Test()
+    void ShouldRejectPersonsNotFound() {
+        familyGraph.unload(3);
+        var traversal = new ParallelTraversal(ForkJoinPool.commonPool(), 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> traversal.findRelatives(familyGraph, 1, 2, true, ids -> false));
+    }
+}
@@ -0,0 +1,71 @@
+package com.findyourfamily.app.app.tests;
+
+import com.findyourfamily.app.business.cache.RelationCache;
+import com.findyourfamily.app.models.domain.BiologicalRelation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelationCacheTests {
+
+    private RelationCache relationCache;
+
+    @BeforeEach()
+    void intitalize() {
+        relationCache = new RelationCache(10);
+    }
+
+    @Test()
+    void ShouldGetStoredRelationInBothOrders() {
+        assertTrue(relationCache.put(1, 2, new BiologicalRelation(1, 0), relationCache.getEpoch()));
+        assertEquals(1, relationCache.get(1, 2).getCousinship());
+        assertEquals(1, relationCache.get(2, 1).getCousinship());
+        assertNull(relationCache.get(1, 3));
+    }
+
+    @Test()
+    void ShouldEvictInvalidatedPersons() {
+        relationCache.put(1, 2, new BiologicalRelation(0, 0), relationCache.getEpoch());
+        relationCache.put(3, 4, new BiologicalRelation(0, 0), relationCache.getEpoch());
+
+        var personIds = new BitSet();
+        personIds.set(2);
+        relationCache.invalidate(personIds);
+
+        assertNull(relationCache.get(1, 2));
+        assertNotNull(relationCache.get(3, 4));
+        assertEquals(1, relationCache.getInvalidationCount());
+    }
+
+    @Test()
+    void ShouldDropRelationComputedBeforeInvalidation() {
+        var epoch = relationCache.getEpoch();
+        relationCache.invalidate(new BitSet());
+
+        assertFalse(relationCache.put(1, 2, new BiologicalRelation(0, 0), epoch));
+        assertNull(relationCache.get(1, 2));
+    }
+
+    @Test()
+    void ShouldDropAllRelationsOnClear() {
+        relationCache.put(1, 2, new BiologicalRelation(0, 0), relationCache.getEpoch());
+        relationCache.put(3, 4, new BiologicalRelation(0, 0), relationCache.getEpoch());
+        relationCache.clear();
+
+        assertNull(relationCache.get(1, 2));
+        assertNull(relationCache.get(3, 4));
+    }
+
+    @Test()
+    void ShouldEvictLeastRecentlyUsed() {
+        for (int personId = 1; personId <= 11; personId++) {
+            relationCache.put(personId, personId + 100, new BiologicalRelation(0, 0), relationCache.getEpoch());
+        }
+        assertNull(relationCache.get(1, 101));
+        assertNotNull(relationCache.get(11, 111));
+        assertEquals(1, relationCache.getEvictionCount());
+    }
+}
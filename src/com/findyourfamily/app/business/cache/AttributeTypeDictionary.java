@@ -0,0 +1,195 @@
+package com.findyourfamily.app.business.cache;
+
+import com.findyourfamily.app.database.familytree.FamilyTreeGateway;
+import com.findyourfamily.app.database.media.MediaArchiveGateway;
+import com.findyourfamily.app.models.shared.AttributeType;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide dictionary of attribute types for persons or media, looked up by their case-folded description.
+ * The dictionary is loaded from the external source 1 time, and new attribute types are added to the external
+ * source and the dictionary together, so that concurrent callers never create the same type twice.
+ */
+public class AttributeTypeDictionary {
+
+    /**
+     * Loads all the attribute types from the external source.
+     */
+    @FunctionalInterface
+    public interface AttributeTypeLoader {
+        List<AttributeType> load() throws SQLException;
+    }
+
+    /**
+     * Creates a new attribute type inside the external source and returns its id.
+     */
+    @FunctionalInterface
+    public interface AttributeTypeCreator {
+        int create(String description) throws SQLException;
+    }
+
+    //Dictionaries for the attribute types of persons and media.
+    private static AttributeTypeDictionary personDictionary = null;
+    private static AttributeTypeDictionary mediaDictionary = null;
+
+    private final AttributeTypeLoader loader;
+    private final AttributeTypeCreator creator;
+
+    //Attribute types by their lower case description.
+    private final ConcurrentHashMap<String, AttributeType> attributeTypes = new ConcurrentHashMap<>();
+
+    //Locks for creating the attribute types not present yet, by their lower case description.
+    private final ConcurrentHashMap<String, Object> creationLocks = new ConcurrentHashMap<>();
+
+    //Lookup statistics.
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile boolean isLoaded = false;
+
+    public AttributeTypeDictionary(AttributeTypeLoader loader, AttributeTypeCreator creator) {
+        this.loader = loader;
+        this.creator = creator;
+    }
+
+    /**
+     * Gets the dictionary of person attribute types, loads it when used for the first time.
+     *
+     * @return person attribute types dictionary.
+     */
+    public static synchronized AttributeTypeDictionary getPersonDictionary() {
+        if (personDictionary == null) {
+            var familyTreeDAO = new FamilyTreeGateway();
+            personDictionary = new AttributeTypeDictionary(familyTreeDAO::getAttributeTypes, familyTreeDAO::addAttribute);
+            personDictionary.tryPreload();
+        }
+        return personDictionary;
+    }
+
+    /**
+     * Gets the dictionary of media attribute types, loads it when used for the first time.
+     *
+     * @return media attribute types dictionary.
+     */
+    public static synchronized AttributeTypeDictionary getMediaDictionary() {
+        if (mediaDictionary == null) {
+            var mediaArchiveDAO = new MediaArchiveGateway();
+            mediaDictionary = new AttributeTypeDictionary(mediaArchiveDAO::getAttributeTypes, mediaArchiveDAO::addAttribute);
+            mediaDictionary.tryPreload();
+        }
+        return mediaDictionary;
+    }
+
+    /**
+     * Loads all the attribute types from the external source into the dictionary.
+     *
+     * @throws IOException
+     */
+    public synchronized void preload() throws IOException {
+        List<AttributeType> loadedTypes;
+        try {
+            loadedTypes = loader.load();
+        } catch (SQLException exception) {
+            throw new IOException("Unable to connect to the database.");
+        }
+        if (loadedTypes == null)
+            throw new IOException("Unable to connect to the database.");
+
+        for (var attributeType : loadedTypes) {
+            attributeTypes.putIfAbsent(toKey(attributeType.getDescription()), attributeType);
+        }
+        isLoaded = true;
+    }
+
+    /**
+     * Gets the attribute type for a description. If the attribute is encountered for the first time, creates
+     * an entry for it inside the external source. Only 1 entry is created even when called concurrently.
+     *
+     * @param description
+     * @return attribute type with its type id.
+     * @throws IOException
+     */
+    public AttributeType getOrCreate(String description) throws IOException {
+        //If there is no record for the attribute types get it from the external source.
+        if (!isLoaded)
+            preload();
+
+        var key = toKey(description);
+        var attributeType = attributeTypes.get(key);
+        if (attributeType != null) {
+            hits.incrementAndGet();
+            return attributeType;
+        }
+
+        misses.incrementAndGet();
+
+        //Entry is created while holding the lock of its description only, other descriptions are not blocked by
+        //the round trip.
+        var creationLock = creationLocks.computeIfAbsent(key, newKey -> new Object());
+        try {
+            synchronized (creationLock) {
+                attributeType = attributeTypes.get(key);
+                if (attributeType != null)
+                    return attributeType;
+
+                attributeType = new AttributeType(creator.create(description), description);
+                attributeTypes.put(key, attributeType);
+                return attributeType;
+            }
+        } catch (SQLException exception) {
+            throw new IOException("Unable to add new attribute in the database.");
+        } finally {
+            //Lock of a failed creation is kept, so that callers waiting on it and new callers never create together.
+            if (attributeTypes.containsKey(key))
+                creationLocks.remove(key, creationLock);
+        }
+    }
+
+    /**
+     * Gets the number of attribute types inside the dictionary.
+     *
+     * @return size of the dictionary.
+     */
+    public int getSize() {
+        return attributeTypes.size();
+    }
+
+    /**
+     * Gets the number of lookups answered by the dictionary.
+     *
+     * @return hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups for attribute types not present inside the dictionary.
+     *
+     * @return miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Preloads the dictionary, a failure is retried on the next lookup.
+     */
+    private void tryPreload() {
+        try {
+            preload();
+        } catch (IOException exception) {
+            System.out.println("Error while loading attribute types: " + exception.getMessage());
+        }
+    }
+
+    private static String toKey(String description) {
+        return description.toLowerCase(Locale.ROOT);
+    }
+}
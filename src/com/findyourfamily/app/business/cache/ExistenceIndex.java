@@ -0,0 +1,206 @@
+package com.findyourfamily.app.business.cache;
+
+import com.findyourfamily.app.database.familytree.FamilyTreeGateway;
+import com.findyourfamily.app.database.media.MediaArchiveGateway;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide index of the person or media ids present inside the external source, stored as a dense bitset.
+ * A set bit always means the id exists. Ids are auto incremented and never deleted, so an id well below the highest
+ * id read by the last load is known not to exist when its bit is not set. Other ids, e.g. added by another process
+ * after the load, are checked against the external source, and ids found missing are remembered for a short time.
+ */
+public class ExistenceIndex {
+
+    /**
+     * Loads the ids of all the rows from the external source.
+     */
+    @FunctionalInterface
+    public interface IdsLoader {
+        BitSet load() throws SQLException;
+    }
+
+    /**
+     * Checks if a row exists inside the external source.
+     */
+    @FunctionalInterface
+    public interface ExistenceChecker {
+        boolean isExists(int id) throws IOException;
+    }
+
+    //Indexes for the ids of persons and media.
+    private static ExistenceIndex personIndex = null;
+    private static ExistenceIndex mediaIndex = null;
+
+    private final IdsLoader loader;
+    private final ExistenceChecker checker;
+
+    //Bit for every id present in the external source.
+    private final BitSet ids = new BitSet();
+
+    //Time ids found missing are remembered, before they are checked against the external source again.
+    private static final long MISSINGIDTTLMILLIS = 1000;
+
+    //Number of missing ids remembered, all of them are forgotten when it is reached.
+    private static final int MISSINGIDSLIMIT = 10000;
+
+    //Number of ids below the highest loaded id whose absence is still checked against the external source. Ids are
+    //given when a row is inserted, so a row committed after a later row has a lower id than it.
+    private static final int LOADWINDOW = 1000;
+
+    //Highest id read by the last load, only a load moves it. Ids above it are unknown to the index.
+    private int loadedHighestId = 0;
+
+    //Time until which every id found missing is remembered, by id.
+    private final Map<Integer, Long> missingIds = new HashMap<>();
+
+    private volatile boolean isLoaded = false;
+
+    //Lookup statistics.
+    private final AtomicLong localAnswers = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public ExistenceIndex(IdsLoader loader, ExistenceChecker checker) {
+        this.loader = loader;
+        this.checker = checker;
+    }
+
+    /**
+     * Gets the index of person ids, loads it when used for the first time.
+     *
+     * @return person ids index.
+     */
+    public static synchronized ExistenceIndex getPersonIndex() {
+        if (personIndex == null) {
+            var familyTreeDAO = new FamilyTreeGateway();
+            personIndex = new ExistenceIndex(familyTreeDAO::getPersonIds, familyTreeDAO::isPersonExists);
+            personIndex.tryPreload();
+        }
+        return personIndex;
+    }
+
+    /**
+     * Gets the index of media ids, loads it when used for the first time.
+     *
+     * @return media ids index.
+     */
+    public static synchronized ExistenceIndex getMediaIndex() {
+        if (mediaIndex == null) {
+            var mediaArchiveDAO = new MediaArchiveGateway();
+            mediaIndex = new ExistenceIndex(mediaArchiveDAO::getMediaIds, mediaArchiveDAO::isMediaExists);
+            mediaIndex.tryPreload();
+        }
+        return mediaIndex;
+    }
+
+    /**
+     * Loads all the ids from the external source into the index.
+     *
+     * @throws IOException
+     */
+    public void preload() throws IOException {
+        BitSet loadedIds;
+        try {
+            loadedIds = loader.load();
+        } catch (SQLException exception) {
+            throw new IOException("Unable to connect to the database.");
+        }
+
+        synchronized (this) {
+            ids.or(loadedIds);
+            loadedHighestId = Math.max(loadedHighestId, loadedIds.length() - 1);
+            missingIds.clear();
+            isLoaded = true;
+        }
+    }
+
+    /**
+     * Checks if the id exists, answers from the index when it knows the id and from the external source otherwise.
+     *
+     * @param id
+     * @return true if the id exists.
+     * @throws IOException
+     */
+    public boolean isExists(int id) throws IOException {
+        if (id <= 0)
+            return false;
+
+        synchronized (this) {
+            //Missing ids are only known well below the highest id of the last load, or for a short time once checked.
+            var missingUntil = missingIds.get(id);
+            if (ids.get(id) || (isLoaded && id <= loadedHighestId - LOADWINDOW)
+                    || (missingUntil != null && missingUntil > System.currentTimeMillis())) {
+                localAnswers.incrementAndGet();
+                return ids.get(id);
+            }
+        }
+
+        fallbacks.incrementAndGet();
+        var isExists = checker.isExists(id);
+        if (isExists)
+            add(id);
+        else
+            addMissing(id);
+        return isExists;
+    }
+
+    /**
+     * Marks the id as present, called once the row is committed to the external source.
+     *
+     * @param id
+     */
+    public void add(int id) {
+        if (id <= 0)
+            return;
+        synchronized (this) {
+            ids.set(id);
+            missingIds.remove(id);
+        }
+    }
+
+    /**
+     * Remembers an id found missing inside the external source for a short time.
+     *
+     * @param id
+     */
+    private synchronized void addMissing(int id) {
+        if (missingIds.size() >= MISSINGIDSLIMIT)
+            missingIds.clear();
+        missingIds.put(id, System.currentTimeMillis() + MISSINGIDTTLMILLIS);
+    }
+
+    /**
+     * Gets the number of checks answered by the index.
+     *
+     * @return local answer count.
+     */
+    public long getLocalAnswerCount() {
+        return localAnswers.get();
+    }
+
+    /**
+     * Gets the number of checks sent to the external source.
+     *
+     * @return fallback count.
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Preloads the index, until it succeeds every check is sent to the external source.
+     */
+    private void tryPreload() {
+        try {
+            preload();
+        } catch (IOException exception) {
+            System.out.println("Error while loading existing ids: " + exception.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.findyourfamily.app.business.cache;
+
+import com.findyourfamily.app.models.domain.BiologicalRelation;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the biological relation between 2 persons, least recently used pairs are removed when the
+ * cache is full. The relation is the same both ways, so a pair is stored once whatever the order of the persons.
+ * Pairs are evicted only when the ancestors of one of their persons change. Every invalidation moves the cache
+ * to a new epoch, and a relation computed during an older epoch is not stored, as it may have been computed from
+ * the ancestors before the change.
+ */
+public class RelationCache {
+
+    //Maximum number of pairs kept, 0 disables the cache.
+    private final int maxSize;
+
+    //Relations by the packed ids of the pair, in least recently used order.
+    private final LinkedHashMap<Long, BiologicalRelation> relations;
+
+    //Increases with every invalidation.
+    private long epoch = 0;
+
+    //Lookup and eviction statistics.
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public RelationCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.relations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BiologicalRelation> eldest) {
+                if (size() <= RelationCache.this.maxSize)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the relation between 2 persons.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return relation between the persons, null when it is not inside the cache.
+     */
+    public synchronized BiologicalRelation get(int person1Id, int person2Id) {
+        var relation = relations.get(key(person1Id, person2Id));
+        if (relation == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return relation;
+    }
+
+    /**
+     * Gets the current epoch, to be read before computing a relation and passed to put.
+     *
+     * @return current epoch.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Stores the relation between 2 persons, unless the cache was invalidated since the relation started
+     * being computed.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @param relation
+     * @param computedEpoch epoch read before computing the relation.
+     * @return true if the relation is stored.
+     */
+    public synchronized boolean put(int person1Id, int person2Id, BiologicalRelation relation, long computedEpoch) {
+        if (maxSize <= 0 || computedEpoch != epoch)
+            return false;
+        relations.put(key(person1Id, person2Id), relation);
+        return true;
+    }
+
+    /**
+     * Evicts every pair having one of the given persons, called when the ancestors of the persons change.
+     *
+     * @param personIds
+     */
+    public synchronized void invalidate(BitSet personIds) {
+        epoch++;
+        var iterator = relations.keySet().iterator();
+        while (iterator.hasNext()) {
+            var key = iterator.next();
+            if (personIds.get((int) (key >>> 32)) || personIds.get((int) (long) key)) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Evicts all the pairs.
+     */
+    public synchronized void clear() {
+        epoch++;
+        invalidations.addAndGet(relations.size());
+        relations.clear();
+    }
+
+    /**
+     * Gets the number of relations found inside the cache.
+     *
+     * @return hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of relations not found inside the cache.
+     *
+     * @return miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of pairs removed to make room for others.
+     *
+     * @return eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of pairs removed because the ancestors of their persons changed.
+     *
+     * @return invalidation count.
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Gets the share of the lookups found inside the cache.
+     *
+     * @return hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        var lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    private long key(int person1Id, int person2Id) {
+        return ((long) Math.min(person1Id, person2Id) << 32) | Math.max(person1Id, person2Id);
+    }
+}
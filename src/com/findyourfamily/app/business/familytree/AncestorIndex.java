@@ -0,0 +1,283 @@
+package com.findyourfamily.app.business.familytree;
+
+import com.findyourfamily.app.models.domain.BiologicalRelation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Index of the ancestors of every person with the fewest generations between them, built from the family graph.
+ * Ancestors of a person are stored as an array sorted by ancestor id, with the person itself at generation 0, so
+ * that the common ancestors of 2 persons are found by searching the ancestors of one inside the other. A person
+ * can only be indexed once all its ancestors are loaded inside the graph. Every method is atomic, so the index
+ * can be shared by concurrent callers.
+ */
+public class AncestorIndex {
+
+    //Graph the ancestors are read from.
+    private final FamilyGraph familyGraph;
+
+    //Ancestor ids sorted by id, and the generations to every ancestor, by person id. Null when not indexed.
+    private int[][] ancestorIds;
+    private int[][] ancestorDepths;
+
+    public AncestorIndex(FamilyGraph familyGraph) {
+        this.familyGraph = familyGraph;
+        ancestorIds = new int[16][];
+        ancestorDepths = new int[16][];
+    }
+
+    /**
+     * Checks if the ancestors of the person are indexed.
+     *
+     * @param personId
+     * @return true if the person is indexed.
+     */
+    public synchronized boolean isIndexed(int personId) {
+        return personId > 0 && personId < ancestorIds.length && ancestorIds[personId] != null;
+    }
+
+    /**
+     * Indexes the ancestors of the person and all its ancestors, the ancestors have to be loaded inside the graph.
+     * When an ancestor is not loaded, e.g. added by a concurrent write, the person is left out of the index so
+     * that the caller loads the ancestors and tries again.
+     *
+     * @param personId
+     * @return true if the person is indexed.
+     */
+    public synchronized boolean index(int personId) {
+        return index(personId, new BitSet());
+    }
+
+    /**
+     * Finds the relation between 2 indexed persons through their closest common ancestor.
+     * Cousinship is 1 less than the generations of the closer person from the ancestor, and removal
+     * is the difference between the generations of both the persons from the ancestor.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return biological relation, -1 for cousinship and removal when the persons are not related.
+     */
+    public synchronized BiologicalRelation findRelation(int person1Id, int person2Id) {
+        if (person1Id == person2Id)
+            return new BiologicalRelation(0, 0);
+
+        var commonAncestor = findCommonAncestor(person1Id, person2Id);
+        if (commonAncestor == null)
+            return new BiologicalRelation(-1, -1);
+
+        return new BiologicalRelation(Math.min(commonAncestor[1], commonAncestor[2]) - 1,
+                Math.abs(commonAncestor[1] - commonAncestor[2]));
+    }
+
+    /**
+     * Finds the closest common ancestor of 2 indexed persons, a person is its own ancestor.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return id of the common ancestor, 0 when the persons are not related.
+     */
+    public synchronized int getLowestCommonAncestor(int person1Id, int person2Id) {
+        var commonAncestor = findCommonAncestor(person1Id, person2Id);
+        return commonAncestor == null ? 0 : commonAncestor[0];
+    }
+
+    /**
+     * Updates the index after the parent-child relation is added to the graph. Indexed descendants of the child
+     * get the ancestors of the parent, when the parent is not indexed they are removed from the index instead.
+     *
+     * @param parentId
+     * @param childId
+     * @return child and its descendants whose ancestors changed.
+     */
+    public synchronized BitSet addChild(int parentId, int childId) {
+        var isParentIndexed = isIndexed(parentId);
+
+        //Child and its descendants by the fewest generations from the child.
+        var visited = new BitSet();
+        visited.set(childId);
+        int[] frontier = {childId};
+        int frontierSize = 1;
+
+        for (int generation = 0; frontierSize > 0; generation++) {
+            var nextFrontier = new int[Math.max(4, frontierSize * 2)];
+            int nextFrontierSize = 0;
+
+            for (int frontierIndex = 0; frontierIndex < frontierSize; frontierIndex++) {
+                var currentId = frontier[frontierIndex];
+                if (isIndexed(currentId) && isParentIndexed)
+                    merge(currentId, ancestorIds[parentId], ancestorDepths[parentId], generation + 1);
+                else if (isIndexed(currentId))
+                    remove(currentId);
+
+                //Descendants of a person not loaded can't be indexed, as all the ancestors of an indexed person are loaded.
+                if (!familyGraph.isLoaded(currentId))
+                    continue;
+                for (var descendantId : familyGraph.getChildren(currentId)) {
+                    if (visited.get(descendantId))
+                        continue;
+                    visited.set(descendantId);
+
+                    if (nextFrontierSize == nextFrontier.length)
+                        nextFrontier = Arrays.copyOf(nextFrontier, nextFrontierSize * 2);
+                    nextFrontier[nextFrontierSize++] = descendantId;
+                }
+            }
+            frontier = nextFrontier;
+            frontierSize = nextFrontierSize;
+        }
+        return visited;
+    }
+
+    /**
+     * Removes all the persons from the index.
+     */
+    public synchronized void clear() {
+        Arrays.fill(ancestorIds, null);
+        Arrays.fill(ancestorDepths, null);
+    }
+
+    /**
+     * Indexes the person after its parents, persons being indexed are skipped so that wrong data with
+     * a person being its own ancestor does not loop.
+     *
+     * @param personId
+     * @param inProgress
+     * @return false if an ancestor is not loaded, the person is not indexed then.
+     */
+    private boolean index(int personId, BitSet inProgress) {
+        if (isIndexed(personId) || inProgress.get(personId))
+            return true;
+
+        //Parents of a person not loaded are unknown, indexing it would store it without its ancestors.
+        if (!familyGraph.isLoaded(personId))
+            return false;
+        inProgress.set(personId);
+
+        //Person itself at generation 0, and every ancestor with its generation packed after its id.
+        var entries = new long[]{pack(personId, 0)};
+        int entryCount = 1;
+        for (var parentId : familyGraph.getParents(personId)) {
+            if (!index(parentId, inProgress)) {
+                inProgress.clear(personId);
+                return false;
+            }
+            //Parent still being indexed is its own descendant, the loop is skipped.
+            if (!isIndexed(parentId))
+                continue;
+
+            var parentAncestors = ancestorIds[parentId];
+            var parentDepths = ancestorDepths[parentId];
+            if (entryCount + parentAncestors.length > entries.length)
+                entries = Arrays.copyOf(entries, Math.max(entries.length * 2, entryCount + parentAncestors.length));
+            for (int ancestorIndex = 0; ancestorIndex < parentAncestors.length; ancestorIndex++) {
+                entries[entryCount++] = pack(parentAncestors[ancestorIndex], parentDepths[ancestorIndex] + 1);
+            }
+        }
+
+        store(personId, entries, entryCount);
+        inProgress.clear(personId);
+        return true;
+    }
+
+    /**
+     * Adds the given ancestors at the given extra generations to the ancestors of an indexed person.
+     *
+     * @param personId
+     * @param ids
+     * @param depths
+     * @param extraDepth
+     */
+    private void merge(int personId, int[] ids, int[] depths, int extraDepth) {
+        var currentIds = ancestorIds[personId];
+        var currentDepths = ancestorDepths[personId];
+        var entries = new long[currentIds.length + ids.length];
+        int entryCount = 0;
+        for (int index = 0; index < currentIds.length; index++) {
+            entries[entryCount++] = pack(currentIds[index], currentDepths[index]);
+        }
+        for (int index = 0; index < ids.length; index++) {
+            entries[entryCount++] = pack(ids[index], depths[index] + extraDepth);
+        }
+        store(personId, entries, entryCount);
+    }
+
+    /**
+     * Stores the packed ancestors of the person, keeping the fewest generations for an ancestor reached many ways.
+     *
+     * @param personId
+     * @param entries
+     * @param entryCount
+     */
+    private void store(int personId, long[] entries, int entryCount) {
+        //Sorted by id first and generation next, so the first entry of every id has the fewest generations.
+        Arrays.sort(entries, 0, entryCount);
+
+        var ids = new int[entryCount];
+        var depths = new int[entryCount];
+        int size = 0;
+        for (int index = 0; index < entryCount; index++) {
+            var id = (int) (entries[index] >>> 32);
+            if (size > 0 && ids[size - 1] == id)
+                continue;
+            ids[size] = id;
+            depths[size] = (int) entries[index];
+            size++;
+        }
+
+        ensureCapacity(personId);
+        ancestorIds[personId] = Arrays.copyOf(ids, size);
+        ancestorDepths[personId] = Arrays.copyOf(depths, size);
+    }
+
+    private void remove(int personId) {
+        ancestorIds[personId] = null;
+        ancestorDepths[personId] = null;
+    }
+
+    /**
+     * Finds the common ancestor of 2 indexed persons with the fewest generations to both of them, searching
+     * the ancestors of the person with fewer ancestors inside the ancestors of the other.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return ancestor id followed by the generations from person 1 and person 2, null when there is none.
+     */
+    private int[] findCommonAncestor(int person1Id, int person2Id) {
+        if (!isIndexed(person1Id) || !isIndexed(person2Id))
+            throw new IllegalArgumentException("Person is not indexed.");
+
+        var isPerson1Smaller = ancestorIds[person1Id].length <= ancestorIds[person2Id].length;
+        var smallerId = isPerson1Smaller ? person1Id : person2Id;
+        var largerIds = ancestorIds[isPerson1Smaller ? person2Id : person1Id];
+        var largerDepths = ancestorDepths[isPerson1Smaller ? person2Id : person1Id];
+
+        int[] commonAncestor = null;
+        for (int index = 0; index < ancestorIds[smallerId].length; index++) {
+            var position = Arrays.binarySearch(largerIds, ancestorIds[smallerId][index]);
+            if (position < 0)
+                continue;
+
+            var smallerDepth = ancestorDepths[smallerId][index];
+            var largerDepth = largerDepths[position];
+            if (commonAncestor == null || smallerDepth + largerDepth < commonAncestor[1] + commonAncestor[2]) {
+                commonAncestor = isPerson1Smaller
+                        ? new int[]{largerIds[position], smallerDepth, largerDepth}
+                        : new int[]{largerIds[position], largerDepth, smallerDepth};
+            }
+        }
+        return commonAncestor;
+    }
+
+    private long pack(int id, int depth) {
+        return ((long) id << 32) | depth;
+    }
+
+    private void ensureCapacity(int personId) {
+        if (personId < ancestorIds.length)
+            return;
+        var capacity = Math.max(personId + 1, ancestorIds.length * 2);
+        ancestorIds = Arrays.copyOf(ancestorIds, capacity);
+        ancestorDepths = Arrays.copyOf(ancestorDepths, capacity);
+    }
+}
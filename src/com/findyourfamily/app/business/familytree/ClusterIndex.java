@@ -0,0 +1,162 @@
+package com.findyourfamily.app.business.familytree;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint set of the persons connected by blood or marriage, so that checking if 2 persons are connected at all
+ * takes nearly constant time. Every group is a tree of persons with the root as the id of the group, kept shallow
+ * by joining the smaller group under the larger and by halving the path on every lookup. A person not known to the
+ * index is a group of its own. Groups are never split, a dissolved partnership keeps the partners connected.
+ * Every method is atomic, so the index can be shared by concurrent callers.
+ */
+public class ClusterIndex {
+
+    //Parent of every person inside its group by person id, 0 for a person not known to the index.
+    private int[] parents;
+
+    //Number of persons inside the group, by the id of the group.
+    private int[] sizes;
+
+    public ClusterIndex() {
+        this(16);
+    }
+
+    public ClusterIndex(int expectedPersons) {
+        parents = new int[Math.max(16, expectedPersons + 1)];
+        sizes = new int[parents.length];
+    }
+
+    /**
+     * Builds the index of all the persons of a snapshot of the family graph.
+     *
+     * @param snapshot
+     * @return index of the groups of the snapshot.
+     */
+    public static ClusterIndex build(FamilyGraph.Snapshot snapshot) {
+        var clusterIndex = new ClusterIndex(snapshot.getMaxPersonId());
+        for (int personId = 1; personId <= snapshot.getMaxPersonId(); personId++) {
+            //Parents are reached from their children, and partnerships are stored on both the partners.
+            for (var childId : snapshot.getChildren(personId)) {
+                clusterIndex.union(personId, childId);
+            }
+            if (snapshot.getPartner(personId) != FamilyGraph.NOPARTNER)
+                clusterIndex.union(personId, snapshot.getPartner(personId));
+            for (var previousPartnerId : snapshot.getPreviousPartners(personId)) {
+                clusterIndex.union(personId, previousPartnerId);
+            }
+        }
+        return clusterIndex;
+    }
+
+    /**
+     * Joins the groups of 2 persons, called when a relation between them is recorded.
+     *
+     * @param person1Id
+     * @param person2Id
+     */
+    public synchronized void union(int person1Id, int person2Id) {
+        var root1 = add(person1Id);
+        var root2 = add(person2Id);
+        if (root1 == root2)
+            return;
+
+        //Smaller group goes under the larger, so that no path gets longer than the log of the size.
+        if (sizes[root1] < sizes[root2]) {
+            var root = root1;
+            root1 = root2;
+            root2 = root;
+        }
+        parents[root2] = root1;
+        sizes[root1] += sizes[root2];
+    }
+
+    /**
+     * Checks if 2 persons are connected by blood or marriage.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return true if both the persons are inside the same group.
+     */
+    public synchronized boolean isConnected(int person1Id, int person2Id) {
+        return person1Id == person2Id || find(person1Id) == find(person2Id);
+    }
+
+    /**
+     * Gets the id of the group of the person, it changes when the group is joined with another.
+     *
+     * @param personId
+     * @return id of the group.
+     */
+    public synchronized int getClusterId(int personId) {
+        return find(personId);
+    }
+
+    /**
+     * Gets the number of persons inside the group of the person.
+     *
+     * @param personId
+     * @return size of the group, 1 for a person without any relation.
+     */
+    public synchronized int getClusterSize(int personId) {
+        var root = find(personId);
+        return isKnown(root) ? sizes[root] : 1;
+    }
+
+    /**
+     * Removes all the persons from the index.
+     */
+    public synchronized void clear() {
+        Arrays.fill(parents, 0);
+        Arrays.fill(sizes, 0);
+    }
+
+    /**
+     * Adds the person to the index as a group of its own when not known yet, growing the index if needed.
+     *
+     * @param personId
+     * @return id of the group.
+     */
+    private int add(int personId) {
+        if (personId <= 0)
+            throw new IllegalArgumentException("Id cannot be less than 1.");
+
+        ensureCapacity(personId);
+        if (parents[personId] == 0) {
+            parents[personId] = personId;
+            sizes[personId] = 1;
+        }
+        return find(personId);
+    }
+
+    /**
+     * Finds the id of the group of the person, pointing every person on the way to its grandparent. A person not
+     * known to the index is its own group, and the index is not grown for it.
+     *
+     * @param personId
+     * @return id of the group.
+     */
+    private int find(int personId) {
+        if (personId <= 0)
+            throw new IllegalArgumentException("Id cannot be less than 1.");
+        if (!isKnown(personId))
+            return personId;
+
+        while (parents[personId] != personId) {
+            parents[personId] = parents[parents[personId]];
+            personId = parents[personId];
+        }
+        return personId;
+    }
+
+    private boolean isKnown(int personId) {
+        return personId < parents.length && parents[personId] != 0;
+    }
+
+    private void ensureCapacity(int personId) {
+        if (personId < parents.length)
+            return;
+        var capacity = Math.max(personId + 1, parents.length * 2);
+        parents = Arrays.copyOf(parents, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+}
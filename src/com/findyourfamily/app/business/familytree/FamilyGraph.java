@@ -0,0 +1,602 @@
+package com.findyourfamily.app.business.familytree;
+
+import com.findyourfamily.app.common.enums.RelationshipTypeEnum;
+import com.findyourfamily.app.models.domain.PersonRelations;
+import com.findyourfamily.app.models.shared.PersonRelationshipLite;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compact store of the relations between persons, indexed by person id. The graph is published as immutable
+ * snapshots: readers take the current snapshot with a single volatile read and traverse it without locking, while
+ * writers build the next version and swap it in. Persons are kept in pages, and a new version copies only the pages
+ * it changes, sharing the others with the previous version. Parents, children and previous partners of a person
+ * are primitive int arrays which are never modified once published. Relations of a person are usable only once
+ * the person is loaded.
+ */
+public class FamilyGraph {
+
+    //Value used for a person without a partner.
+    public static final int NOPARTNER = 0;
+
+    //Number of persons inside a page, as a power of 2.
+    private static final int PAGESHIFT = 10;
+    private static final int PAGESIZE = 1 << PAGESHIFT;
+
+    //Shared value for a person without any relation of a kind.
+    private static final int[] NONE = new int[0];
+
+    /**
+     * Updates applied to the graph together as a single new version.
+     *
+     * @param <E> exception thrown by the updates.
+     */
+    @FunctionalInterface
+    public interface Updates<E extends Exception> {
+        void apply() throws E;
+    }
+
+    //Current version of the graph.
+    private volatile Snapshot snapshot;
+
+    //Version being built by the running batch, null outside a batch.
+    private Draft batchDraft;
+
+    public FamilyGraph() {
+        this(1024);
+    }
+
+    public FamilyGraph(int expectedPersons) {
+        snapshot = new Snapshot(0, new Page[(Math.max(0, expectedPersons) >> PAGESHIFT) + 1], 0);
+    }
+
+    /**
+     * Gets the current version of the graph, it never changes once taken.
+     *
+     * @return snapshot of the graph.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Checks if the relations of the person have been loaded.
+     *
+     * @param personId
+     * @return true if the person is loaded.
+     */
+    public boolean isLoaded(int personId) {
+        return snapshot.isLoaded(personId);
+    }
+
+    /**
+     * Gets the parents of the person, the array must not be modified.
+     *
+     * @param personId
+     * @return ids of the parents.
+     */
+    public int[] getParents(int personId) {
+        return snapshot.getParents(personId);
+    }
+
+    /**
+     * Gets the children of the person, the array must not be modified.
+     *
+     * @param personId
+     * @return ids of the children.
+     */
+    public int[] getChildren(int personId) {
+        return snapshot.getChildren(personId);
+    }
+
+    /**
+     * Gets the previous partners of the person, the array must not be modified.
+     *
+     * @param personId
+     * @return ids of the previous partners.
+     */
+    public int[] getPreviousPartners(int personId) {
+        return snapshot.getPreviousPartners(personId);
+    }
+
+    /**
+     * Gets the current partner of the person.
+     *
+     * @param personId
+     * @return id of the partner, NOPARTNER when the person has no partner.
+     */
+    public int getPartner(int personId) {
+        return snapshot.getPartner(personId);
+    }
+
+    /**
+     * Gets the version of the relations of the person, it changes every time the relations of the person change.
+     *
+     * @param personId
+     * @return version of the person.
+     */
+    public int getVersion(int personId) {
+        return snapshot.getVersion(personId);
+    }
+
+    /**
+     * Gets the number of persons loaded inside the graph.
+     *
+     * @return loaded persons count.
+     */
+    public int getLoadedCount() {
+        return snapshot.getLoadedCount();
+    }
+
+    /**
+     * Applies all the updates made by the given code as a single new version, so that readers never see
+     * a part of them and pages are copied only once. Nothing is applied when the updates throw. Used for
+     * large imports.
+     *
+     * @param updates
+     * @param <E>
+     * @throws E
+     */
+    public synchronized <E extends Exception> void batch(Updates<E> updates) throws E {
+        if (batchDraft != null) {
+            updates.apply();
+            return;
+        }
+
+        //Draft is dropped when the updates fail, so a failed batch leaves the graph as it was.
+        var draft = new Draft(snapshot);
+        batchDraft = draft;
+        try {
+            updates.apply();
+        } finally {
+            batchDraft = null;
+        }
+        publish(draft);
+    }
+
+    /**
+     * Replaces the relations of the person with the given relations and marks the person as loaded.
+     *
+     * @param relations
+     */
+    public synchronized void load(PersonRelations relations) {
+        restore(relations.getPersonId(),
+                relations.getParents().stream().mapToInt(parent -> parent.getPersonId()).toArray(),
+                relations.getChildren().stream().mapToInt(child -> child.getPersonId()).toArray(),
+                relations.getPreviousPartners().stream().mapToInt(previousPartner -> previousPartner.getPersonId()).toArray(),
+                relations.getPartner() != null ? relations.getPartner().getPersonId() : NOPARTNER, true);
+    }
+
+    /**
+     * Replaces the relations of the person with the given relations, only when the person did not change since
+     * the relations were read, so that relations read before a concurrent write never hide that write.
+     *
+     * @param relations
+     * @param expectedVersion version of the person when the relations were read.
+     * @return true if the person is loaded.
+     */
+    public synchronized boolean load(PersonRelations relations, int expectedVersion) {
+        var draft = startDraft();
+        if (draft.getVersion(relations.getPersonId()) != expectedVersion)
+            return false;
+        load(relations);
+        return true;
+    }
+
+    /**
+     * Replaces the relations of the person with the given ids, used as well when the graph is read back from
+     * a snapshot file. The arrays are kept by the graph and must not be modified afterwards.
+     *
+     * @param personId
+     * @param parents
+     * @param children
+     * @param previousPartners
+     * @param partnerId
+     * @param isLoaded
+     */
+    synchronized void restore(int personId, int[] parents, int[] children, int[] previousPartners, int partnerId,
+                              boolean isLoaded) {
+        var draft = startDraft();
+        var page = draft.pageForWrite(personId);
+        var slot = slot(personId);
+
+        page.parents[slot] = toIds(parents);
+        page.children[slot] = toIds(children);
+        page.previousPartners[slot] = toIds(previousPartners);
+        page.partners[slot] = partnerId;
+        page.versions[slot]++;
+        draft.setLoaded(page, slot, isLoaded);
+
+        publish(draft);
+    }
+
+    /**
+     * Adds a relation read from the external source to both the persons. Partnerships are stored in both
+     * directions inside the external source, parent-child relations only once with person 1 as the parent.
+     *
+     * @param relation
+     */
+    public synchronized void addRelation(PersonRelationshipLite relation) {
+        if (relation.getRelationshipType() == RelationshipTypeEnum.ParentChild.getId())
+            addChild(relation.getPerson1Id(), relation.getPerson2Id());
+        else if (relation.getRelationshipType() == RelationshipTypeEnum.Partner.getId() && relation.getIsActive() == 1)
+            setPartner(relation.getPerson1Id(), relation.getPerson2Id());
+        else if (relation.getRelationshipType() == RelationshipTypeEnum.Partner.getId())
+            dissolvePartner(relation.getPerson1Id(), relation.getPerson2Id());
+    }
+
+    /**
+     * Marks all the given persons as loaded, used once all their relations have been added.
+     *
+     * @param personIds
+     */
+    public synchronized void markLoaded(BitSet personIds) {
+        var draft = startDraft();
+        for (int personId = personIds.nextSetBit(1); personId >= 0; personId = personIds.nextSetBit(personId + 1)) {
+            draft.setLoaded(draft.pageForWrite(personId), slot(personId), true);
+        }
+        publish(draft);
+    }
+
+    /**
+     * Forgets the relations of the person, they have to be loaded again before use.
+     *
+     * @param personId
+     */
+    public synchronized void unload(int personId) {
+        if (personId <= 0)
+            return;
+        var draft = startDraft();
+        var page = draft.pageForWrite(personId);
+        var slot = slot(personId);
+
+        page.parents[slot] = NONE;
+        page.children[slot] = NONE;
+        page.previousPartners[slot] = NONE;
+        page.partners[slot] = NOPARTNER;
+        page.versions[slot]++;
+        draft.setLoaded(page, slot, false);
+
+        publish(draft);
+    }
+
+    /**
+     * Records the parent-child relation on both the persons.
+     *
+     * @param parentId
+     * @param childId
+     */
+    public synchronized void addChild(int parentId, int childId) {
+        var draft = startDraft();
+
+        var parentPage = draft.pageForWrite(parentId);
+        var parentSlot = slot(parentId);
+        parentPage.children[parentSlot] = appendIfMissing(parentPage.children[parentSlot], childId);
+        parentPage.versions[parentSlot]++;
+
+        var childPage = draft.pageForWrite(childId);
+        var childSlot = slot(childId);
+        childPage.parents[childSlot] = appendIfMissing(childPage.parents[childSlot], parentId);
+        childPage.versions[childSlot]++;
+
+        publish(draft);
+    }
+
+    /**
+     * Records the partnership on both the persons.
+     *
+     * @param partner1Id
+     * @param partner2Id
+     */
+    public synchronized void setPartner(int partner1Id, int partner2Id) {
+        var draft = startDraft();
+
+        var partner1Page = draft.pageForWrite(partner1Id);
+        partner1Page.partners[slot(partner1Id)] = partner2Id;
+        partner1Page.versions[slot(partner1Id)]++;
+
+        var partner2Page = draft.pageForWrite(partner2Id);
+        partner2Page.partners[slot(partner2Id)] = partner1Id;
+        partner2Page.versions[slot(partner2Id)]++;
+
+        publish(draft);
+    }
+
+    /**
+     * Dissolves the partnership on both the persons, partners become previous partners of each other.
+     *
+     * @param partner1Id
+     * @param partner2Id
+     */
+    public synchronized void dissolvePartner(int partner1Id, int partner2Id) {
+        var draft = startDraft();
+        dissolve(draft, partner1Id, partner2Id);
+        dissolve(draft, partner2Id, partner1Id);
+        publish(draft);
+    }
+
+    /**
+     * Forgets the relations of all the persons. Version of every person changes as well, so that a version
+     * read before clearing never matches again.
+     */
+    public synchronized void clear() {
+        var draft = startDraft();
+        for (int pageIndex = 0; pageIndex < draft.pages.length; pageIndex++) {
+            if (draft.pages[pageIndex] == null)
+                continue;
+            var page = new Page();
+            for (int slot = 0; slot < PAGESIZE; slot++) {
+                page.versions[slot] = draft.pages[pageIndex].versions[slot] + 1;
+            }
+            draft.pages[pageIndex] = page;
+            draft.ownedPages[pageIndex] = true;
+        }
+        draft.loadedCount = 0;
+        publish(draft);
+    }
+
+    private void dissolve(Draft draft, int personId, int partnerId) {
+        var page = draft.pageForWrite(personId);
+        var slot = slot(personId);
+        if (page.partners[slot] == partnerId)
+            page.partners[slot] = NOPARTNER;
+        page.previousPartners[slot] = appendIfMissing(page.previousPartners[slot], partnerId);
+        page.versions[slot]++;
+    }
+
+    /**
+     * Gets the draft to write into, the draft of the running batch or a new draft for a single update.
+     *
+     * @return draft of the next version.
+     */
+    private Draft startDraft() {
+        return batchDraft != null ? batchDraft : new Draft(snapshot);
+    }
+
+    /**
+     * Publishes the draft as the current version, unless it belongs to a batch still running.
+     *
+     * @param draft
+     */
+    private void publish(Draft draft) {
+        if (draft == batchDraft)
+            return;
+        snapshot = new Snapshot(snapshot.version + 1, draft.pages, draft.loadedCount);
+    }
+
+    /**
+     * Appends a value to an adjacency array when it is not present, always in a new array as published
+     * arrays are shared between versions.
+     *
+     * @param array
+     * @param value
+     * @return array holding the value.
+     */
+    private static int[] appendIfMissing(int[] array, int value) {
+        for (var existing : array) {
+            if (existing == value)
+                return array;
+        }
+        var appended = Arrays.copyOf(array, array.length + 1);
+        appended[array.length] = value;
+        return appended;
+    }
+
+    private static int[] toIds(int[] ids) {
+        return ids.length == 0 ? NONE : ids;
+    }
+
+    private static int slot(int personId) {
+        return personId & (PAGESIZE - 1);
+    }
+
+    /**
+     * Immutable version of the graph, safe to traverse without locking.
+     */
+    public static final class Snapshot {
+
+        //Increases with every published version.
+        private final long version;
+
+        //Pages of persons by person id divided by the page size, null for pages without any person.
+        private final Page[] pages;
+
+        private final int loadedCount;
+
+        private Snapshot(long version, Page[] pages, int loadedCount) {
+            this.version = version;
+            this.pages = pages;
+            this.loadedCount = loadedCount;
+        }
+
+        /**
+         * Gets the version of the graph.
+         *
+         * @return version of the snapshot.
+         */
+        public long getGraphVersion() {
+            return version;
+        }
+
+        /**
+         * Checks if the relations of the person have been loaded.
+         *
+         * @param personId
+         * @return true if the person is loaded.
+         */
+        public boolean isLoaded(int personId) {
+            var page = page(personId);
+            return page != null && (page.loaded[slot(personId) >> 6] & (1L << slot(personId))) != 0;
+        }
+
+        /**
+         * Gets the parents of the person, the array must not be modified.
+         *
+         * @param personId
+         * @return ids of the parents.
+         */
+        public int[] getParents(int personId) {
+            var page = page(personId);
+            return page == null ? NONE : page.parents[slot(personId)];
+        }
+
+        /**
+         * Gets the children of the person, the array must not be modified.
+         *
+         * @param personId
+         * @return ids of the children.
+         */
+        public int[] getChildren(int personId) {
+            var page = page(personId);
+            return page == null ? NONE : page.children[slot(personId)];
+        }
+
+        /**
+         * Gets the previous partners of the person, the array must not be modified.
+         *
+         * @param personId
+         * @return ids of the previous partners.
+         */
+        public int[] getPreviousPartners(int personId) {
+            var page = page(personId);
+            return page == null ? NONE : page.previousPartners[slot(personId)];
+        }
+
+        /**
+         * Gets the current partner of the person.
+         *
+         * @param personId
+         * @return id of the partner, NOPARTNER when the person has no partner.
+         */
+        public int getPartner(int personId) {
+            var page = page(personId);
+            return page == null ? NOPARTNER : page.partners[slot(personId)];
+        }
+
+        /**
+         * Gets the version of the relations of the person.
+         *
+         * @param personId
+         * @return version of the person.
+         */
+        public int getVersion(int personId) {
+            var page = page(personId);
+            return page == null ? 0 : page.versions[slot(personId)];
+        }
+
+        /**
+         * Gets the number of persons loaded inside the snapshot.
+         *
+         * @return loaded persons count.
+         */
+        public int getLoadedCount() {
+            return loadedCount;
+        }
+
+        /**
+         * Gets the highest person id the snapshot has room for.
+         *
+         * @return highest person id.
+         */
+        public int getMaxPersonId() {
+            return pages.length * PAGESIZE - 1;
+        }
+
+        private Page page(int personId) {
+            var pageIndex = personId >> PAGESHIFT;
+            return personId <= 0 || pageIndex >= pages.length ? null : pages[pageIndex];
+        }
+    }
+
+    /**
+     * Relations of the persons of a single page.
+     */
+    private static final class Page {
+        private final int[][] parents;
+        private final int[][] children;
+        private final int[][] previousPartners;
+        private final int[] partners;
+        private final int[] versions;
+        private final long[] loaded;
+
+        private Page() {
+            parents = new int[PAGESIZE][];
+            children = new int[PAGESIZE][];
+            previousPartners = new int[PAGESIZE][];
+            Arrays.fill(parents, NONE);
+            Arrays.fill(children, NONE);
+            Arrays.fill(previousPartners, NONE);
+            partners = new int[PAGESIZE];
+            versions = new int[PAGESIZE];
+            loaded = new long[PAGESIZE >> 6];
+        }
+
+        private Page(Page page) {
+            parents = page.parents.clone();
+            children = page.children.clone();
+            previousPartners = page.previousPartners.clone();
+            partners = page.partners.clone();
+            versions = page.versions.clone();
+            loaded = page.loaded.clone();
+        }
+    }
+
+    /**
+     * Next version of the graph while it is being written. Pages are copied the first time they are written,
+     * pages not written stay shared with the current version.
+     */
+    private static final class Draft {
+        private Page[] pages;
+        private boolean[] ownedPages;
+        private int loadedCount;
+
+        private Draft(Snapshot snapshot) {
+            pages = snapshot.pages.clone();
+            ownedPages = new boolean[pages.length];
+            loadedCount = snapshot.loadedCount;
+        }
+
+        /**
+         * Gets the page of the person, ready to be written.
+         *
+         * @param personId
+         * @return page owned by the draft.
+         */
+        private Page pageForWrite(int personId) {
+            if (personId <= 0)
+                throw new IllegalArgumentException("Id cannot be less than 1.");
+
+            var pageIndex = personId >> PAGESHIFT;
+            if (pageIndex >= pages.length) {
+                var capacity = Math.max(pageIndex + 1, pages.length * 2);
+                pages = Arrays.copyOf(pages, capacity);
+                ownedPages = Arrays.copyOf(ownedPages, capacity);
+            }
+            if (!ownedPages[pageIndex]) {
+                pages[pageIndex] = pages[pageIndex] == null ? new Page() : new Page(pages[pageIndex]);
+                ownedPages[pageIndex] = true;
+            }
+            return pages[pageIndex];
+        }
+
+        private int getVersion(int personId) {
+            var pageIndex = personId >> PAGESHIFT;
+            if (personId <= 0 || pageIndex >= pages.length || pages[pageIndex] == null)
+                return 0;
+            return pages[pageIndex].versions[slot(personId)];
+        }
+
+        private void setLoaded(Page page, int slot, boolean isLoaded) {
+            var mask = 1L << slot;
+            var wasLoaded = (page.loaded[slot >> 6] & mask) != 0;
+            if (isLoaded && !wasLoaded) {
+                page.loaded[slot >> 6] |= mask;
+                loadedCount++;
+            } else if (!isLoaded && wasLoaded) {
+                page.loaded[slot >> 6] &= ~mask;
+                loadedCount--;
+            }
+        }
+    }
+}
@@ -1,26 +1,60 @@
 package com.findyourfamily.app.business.familytree;
 
+import com.findyourfamily.app.business.cache.AttributeTypeDictionary;
+import com.findyourfamily.app.business.cache.ExistenceIndex;
+import com.findyourfamily.app.business.cache.RelationCache;
 import com.findyourfamily.app.business.reporting.IReport;
 import com.findyourfamily.app.business.reporting.Report;
+import com.findyourfamily.app.common.config.AppConfiguration;
 import com.findyourfamily.app.database.familytree.FamilyTreeGateway;
 import com.findyourfamily.app.database.familytree.IFamilyTreeGateway;
 
 import com.findyourfamily.app.models.domain.*;
 import com.findyourfamily.app.common.enums.PersonAttributesEnum;
 import com.findyourfamily.app.common.enums.RelationshipTypeEnum;
-import com.findyourfamily.app.models.shared.AttributeType;
 import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Implementation type for recording information related to a person, and it's relations.
+ * The family graph and its indexes are shared by all the family trees of the process, so they are loaded once.
  */
 public class FamilyTree implements IFamilyTree {
 
+    //Property enabling the load of the whole graph when the family tree is created.
+    private static final String warmStartProperty = "graph.warmStart";
+
+    //Properties for the file the family graph is saved to, and the minutes between saves, 0 to never save.
+    private static final String snapshotFileProperty = "graph.snapshotFile";
+    private static final String snapshotIntervalProperty = "graph.snapshotIntervalMinutes";
+
+    //Property for the number of relations between persons kept inside the cache.
+    private static final String relationCacheSizeProperty = "relationCache.size";
+
+    //Number of locks shared by the persons for recording relationships.
+    private static final int LOCKSTRIPES = 64;
+
+    //Number of times the relations of a person are read again when they change while being read.
+    private static final int LOADATTEMPTS = 3;
+
+    //Number of relations read between progress reports of the warm start.
+    private static final int PROGRESSINTERVAL = 100000;
+
+    //Number of relation changes before the last change applied that every catch up reads again. Change ids are
+    //given when a change is made, so a change committed after a later change has a lower id than it.
+    private static final long CATCHUPWINDOW = 1000;
+
     //Stores family tree database object.
     private IFamilyTreeGateway familyTreeDAO;
 
@@ -28,34 +62,397 @@ public class FamilyTree implements IFamilyTree {
     private IReport report;
 
     //Stores all the attributes present inside the external source.
-    private List<AttributeType> attributeTypes;
+    private AttributeTypeDictionary attributeTypes;
+
+    //Stores the ids of all the persons present inside the external source.
+    private ExistenceIndex personIds;
+
+    //Graph storing the relations of the persons loaded from the external source, shared by the whole process.
+    private static volatile FamilyGraph familyGraph = new FamilyGraph();
+
+    //Index of the ancestors of the persons, built from the family graph.
+    private static volatile AncestorIndex ancestorIndex = new AncestorIndex(familyGraph);
+
+    //Relations between persons already found.
+    private static final RelationCache relationCache =
+            new RelationCache(AppConfiguration.getInt(relationCacheSizeProperty, 10000));
+
+    //Groups of the persons connected by blood or marriage, complete only once the whole graph is loaded.
+    private static volatile ClusterIndex clusterIndex = new ClusterIndex();
+
+    //Locks for recording the relationships of the persons, a person uses the lock at its id modulo the stripes.
+    private static final ReentrantLock[] personLocks = new ReentrantLock[LOCKSTRIPES];
+
+    //Last relation change included inside the family graph, -1 while only a part of the graph is loaded.
+    private static volatile long graphChangeId = -1;
+
+    //File the family graph is saved to and loaded from.
+    private static final Path snapshotPath =
+            Path.of(AppConfiguration.getString(snapshotFileProperty, "familygraph.snapshot"));
+
+    //Saves the family graph to the snapshot file periodically, null when saving is disabled.
+    private static ScheduledExecutorService snapshotWriter = null;
+
+    //Lets a single load of the whole graph run at a time.
+    private static final Object graphLoadLock = new Object();
 
-    //Map for storing person id ,and it's corresponding relations.
-    private Map<Integer, PersonRelations> personsMap;
+    //Number of loads of the whole graph finished, only changed while holding the load lock.
+    private static volatile long graphLoads = 0;
+
+    //True once the family graph has been set up for the process.
+    private static boolean isGraphInitialized = false;
+
+    static {
+        for (int index = 0; index < LOCKSTRIPES; index++) {
+            personLocks[index] = new ReentrantLock();
+        }
+    }
 
     public FamilyTree() {
         familyTreeDAO = new FamilyTreeGateway();
         report = new Report();
-        personsMap = new HashMap<>();
+        attributeTypes = AttributeTypeDictionary.getPersonDictionary();
+        personIds = ExistenceIndex.getPersonIndex();
+        initializeGraph();
+    }
+
+    /**
+     * Sets up the family graph shared by all the family trees of the process, only the first family tree
+     * created loads it and starts saving it.
+     */
+    private void initializeGraph() {
+        synchronized (FamilyTree.class) {
+            if (isGraphInitialized)
+                return;
+            isGraphInitialized = true;
+
+            //The snapshot file is used when present, the external source is read in full otherwise.
+            if (AppConfiguration.getBoolean(warmStartProperty, false) && !loadGraphSnapshot())
+                preloadGraph();
+
+            var snapshotInterval = AppConfiguration.getLong(snapshotIntervalProperty, 0);
+            if (snapshotInterval > 0) {
+                snapshotWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    var thread = new Thread(runnable, "family-graph-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                snapshotWriter.scheduleWithFixedDelay(this::saveGraphSnapshot, snapshotInterval, snapshotInterval,
+                        TimeUnit.MINUTES);
+            }
+        }
     }
 
     /**
-     * Gets the persons map, storing person id ,and it's corresponding relations.
+     * Loads the relations of all the persons into the family graph with a single pass over the external source,
+     * so that no person has to be loaded while answering requests. Only one load runs at a time, callers arriving
+     * while a load runs wait for it and use its result. When the load fails, the graph is emptied and persons are
+     * loaded on first use instead.
      *
-     * @return the persons map to be used in other files.
+     * @return true if the whole graph is loaded.
      */
-    public Map<Integer, PersonRelations> getPersonsMap() {
-        return personsMap;
+    public boolean preloadGraph() {
+        //Read before waiting for the lock, so that a load running meanwhile is noticed.
+        var observedLoads = graphLoads;
+        synchronized (graphLoadLock) {
+            //A load finished while waiting for the lock, the whole table is not read again.
+            if (graphLoads != observedLoads && graphChangeId >= 0)
+                return true;
+            try {
+                return loadAllRelations();
+            } finally {
+                graphLoads++;
+            }
+        }
     }
 
     /**
-     * Adds a new entry to the persons map, storing person id ,and it's corresponding relations.
+     * Reads all the relations of the external source into a new family graph and publishes it.
+     *
+     * @return true if the whole graph is loaded.
+     */
+    private boolean loadAllRelations() {
+        var startTime = System.currentTimeMillis();
+        try {
+            //Persons without any relation are loaded as well, and the graph is sized once for all the ids.
+            var allPersonIds = familyTreeDAO.getPersonIds();
+            var graph = new FamilyGraph(allPersonIds.length());
+
+            //Changes committed while the relations are read are replayed before the graph is published.
+            var changeId = report.getLastRelationChange();
+
+            //All the relations are added as a single version, so every page is copied only once.
+            var readCount = new int[1];
+            var relationCount = new int[1];
+            graph.batch(() -> {
+                relationCount[0] = report.streamAllRelations(relation -> {
+                    graph.addRelation(relation);
+                    if (++readCount[0] % PROGRESSINTERVAL == 0)
+                        System.out.println("Family graph loading, " + readCount[0] + " relations read in "
+                                + (System.currentTimeMillis() - startTime) + " ms.");
+                });
+                graph.markLoaded(allPersonIds);
+            });
+            publishGraph(graph, changeId);
+
+            System.out.println("Family graph loaded with " + graph.getLoadedCount() + " persons and "
+                    + relationCount[0] + " relations in " + (System.currentTimeMillis() - startTime) + " ms.");
+            return true;
+        } catch (SQLException | IOException | IllegalArgumentException exception) {
+            System.out.println("Error while loading family graph: " + exception.getMessage());
+            var lockedStripes = lockAllPersons();
+            try {
+                graphChangeId = -1;
+                familyGraph.clear();
+                ancestorIndex.clear();
+                clusterIndex.clear();
+                relationCache.clear();
+            } finally {
+                unlockPersons(lockedStripes);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Loads the family graph from the snapshot file, then replays only the relation changes made after the
+     * snapshot was written, and the few before it which may have been committed late. Persons added since the
+     * snapshot are marked as loaded too, their relations can only come from the replayed changes.
+     *
+     * @return true if the whole graph is loaded.
+     */
+    public boolean loadGraphSnapshot() {
+        if (!Files.exists(snapshotPath))
+            return false;
+
+        synchronized (graphLoadLock) {
+            var startTime = System.currentTimeMillis();
+            try {
+                var allPersonIds = familyTreeDAO.getPersonIds();
+                var graph = new FamilyGraph(allPersonIds.length());
+                var snapshotChangeId = GraphSnapshotFile.read(snapshotPath, graph);
+                var readTime = System.currentTimeMillis() - startTime;
+
+                var changeCount = new int[1];
+                var changeId = new long[1];
+                graph.batch(() -> {
+                    changeId[0] = catchUp(snapshotChangeId, change -> {
+                        graph.addRelation(change);
+                        changeCount[0]++;
+                    });
+                    graph.markLoaded(allPersonIds);
+                });
+                publishGraph(graph, changeId[0]);
+                graphLoads++;
+
+                System.out.println("Family graph loaded from snapshot with " + graph.getLoadedCount()
+                        + " persons in " + readTime + " ms, " + changeCount[0] + " changes replayed in "
+                        + (System.currentTimeMillis() - startTime - readTime) + " ms.");
+                return true;
+            } catch (SQLException | IOException | IllegalArgumentException exception) {
+                System.out.println("Error while loading family graph snapshot: " + exception.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Replaces the family graph with a whole graph read from the external source, along with its indexes. The
+     * changes after the given change are replayed while all the stripes are held, so that relationships recorded
+     * while the graph was read are inside it when it is published.
+     *
+     * @param graph
+     * @param changeId last relation change read into the graph.
+     * @throws IOException
+     */
+    private void publishGraph(FamilyGraph graph, long changeId) throws IOException {
+        var lockedStripes = lockAllPersons();
+        try {
+            var graphAncestorIndex = new AncestorIndex(graph);
+            var graphClusterIndex = ClusterIndex.build(graph.getSnapshot());
+            var lastChangeId = catchUp(changeId,
+                    change -> applyRelationChange(graph, graphAncestorIndex, graphClusterIndex, change));
+
+            familyGraph = graph;
+            ancestorIndex = graphAncestorIndex;
+            clusterIndex = graphClusterIndex;
+            relationCache.clear();
+            graphChangeId = lastChangeId;
+        } finally {
+            unlockPersons(lockedStripes);
+        }
+    }
+
+    /**
+     * Brings the family graph up to date with the relation changes made by other processes, and writes it to the
+     * snapshot file. Only a whole graph is saved, so that it can be loaded back without reading all the relations.
+     *
+     * @return true if the snapshot file is written.
+     */
+    public boolean saveGraphSnapshot() {
+        if (graphChangeId < 0)
+            return false;
+
+        var startTime = System.currentTimeMillis();
+        FamilyGraph.Snapshot snapshot;
+        long changeId;
+
+        //Relationship writes update the graph while holding their stripes, so no write is between its commit and
+        //its graph update while all the stripes are held.
+        var lockedStripes = lockAllPersons();
+        try {
+            changeId = catchUp(graphChangeId, this::applyRelationChange);
+            snapshot = familyGraph.getSnapshot();
+            graphChangeId = changeId;
+        } catch (IOException | IllegalArgumentException exception) {
+            System.out.println("Error while updating family graph: " + exception.getMessage());
+            return false;
+        } finally {
+            unlockPersons(lockedStripes);
+        }
+
+        //The snapshot never changes, so it is written without blocking the writers.
+        try {
+            GraphSnapshotFile.write(snapshotPath, snapshot, changeId);
+            System.out.println("Family graph snapshot written with " + snapshot.getLoadedCount() + " persons in "
+                    + (System.currentTimeMillis() - startTime) + " ms.");
+            return true;
+        } catch (IOException exception) {
+            System.out.println("Error while writing family graph snapshot: " + exception.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the relation changes made after the given change, starting a window before it so that changes
+     * committed late with a lower id are not missed. Changes are read again, so applying them must be idempotent.
+     *
+     * @param afterChangeId last change applied.
+     * @param consumer
+     * @return last change applied once the changes are read.
+     * @throws IOException
+     */
+    private long catchUp(long afterChangeId, Consumer<PersonRelationshipLite> consumer) throws IOException {
+        var lastChangeId = report.streamRelationChanges(Math.max(0, afterChangeId - CATCHUPWINDOW), consumer);
+        return Math.max(afterChangeId, lastChangeId);
+    }
+
+    /**
+     * Gets the family graph, storing the relations of the persons loaded so far.
+     *
+     * @return the family graph to be used in other files.
+     */
+    public FamilyGraph getFamilyGraph() {
+        return familyGraph;
+    }
+
+    /**
+     * Rebuilds the closure of the parent-child relations inside the external source from all the
+     * recorded relationships.
+     *
+     * @throws IOException
+     */
+    public void rebuildClosure() throws IOException {
+        try {
+            familyTreeDAO.rebuildClosure();
+        } catch (SQLException ex) {
+            throw new IOException("Unable to connect to the database.");
+        }
+    }
+
+    /**
+     * Gets the index of the ancestors of the persons, built from the family graph.
+     *
+     * @return the ancestor index to be used in other files.
+     */
+    public AncestorIndex getAncestorIndex() {
+        return ancestorIndex;
+    }
+
+    /**
+     * Gets the index of the groups of persons connected by blood or marriage.
+     *
+     * @return the cluster index to be used in other files.
+     */
+    public ClusterIndex getClusterIndex() {
+        return clusterIndex;
+    }
+
+    /**
+     * Checks if the cluster index holds all the relations, which is only the case once the whole graph is loaded.
+     * Otherwise persons shown as not connected may be connected by relations not loaded yet.
+     *
+     * @return true if the cluster index is complete.
+     */
+    public boolean isClusterIndexComplete() {
+        return graphChangeId >= 0;
+    }
+
+    /**
+     * Gets the cache of the relations between persons already found.
+     *
+     * @return the relation cache to be used in other files.
+     */
+    public RelationCache getRelationCache() {
+        return relationCache;
+    }
+
+    /**
+     * Loads the relations of a person from the external source into the family graph, when they are not loaded yet.
      *
      * @param personId
-     * @param personRelations
+     * @return true if the relations of the person are loaded.
+     */
+    public boolean loadPerson(int personId) {
+        if (familyGraph.isLoaded(personId))
+            return true;
+        return reloadPerson(personId);
+    }
+
+    /**
+     * Loads the relations of the persons not loaded yet into the family graph, with a single round trip
+     * for every chunk of persons.
+     *
+     * @param personIds
+     * @return true if the relations of all the persons are loaded.
      */
-    public void addToPersonsMap(Integer personId, PersonRelations personRelations) {
-        this.personsMap.put(personId, personRelations);
+    public boolean loadPersons(Set<Integer> personIds) {
+        var missingIds = new HashSet<Integer>();
+        for (var personId : personIds) {
+            if (!familyGraph.isLoaded(personId))
+                missingIds.add(personId);
+        }
+        if (missingIds.isEmpty())
+            return true;
+
+        for (int attempt = 1; !missingIds.isEmpty(); attempt++) {
+            //Persons still written while being read are left to be loaded on use.
+            if (attempt > LOADATTEMPTS)
+                return false;
+
+            //Versions before reading, a person written meanwhile is read again.
+            var versions = new HashMap<Integer, Integer>();
+            for (var personId : missingIds) {
+                versions.put(personId, familyGraph.getVersion(personId));
+            }
+
+            //If the relations could not be read from the external source, persons are left to be loaded on use.
+            var personsRelations = report.findPersonsRelations(missingIds);
+            if (personsRelations == null)
+                return false;
+
+            //Relations read are applied as a single version, versions are checked against that version.
+            var changedIds = new HashSet<Integer>();
+            var graph = familyGraph;
+            graph.batch(() -> {
+                for (var relations : personsRelations.values()) {
+                    if (!graph.load(relations, versions.get(relations.getPersonId())))
+                        changedIds.add(relations.getPersonId());
+                }
+            });
+            missingIds = changedIds;
+        }
+        return true;
     }
 
     /**
@@ -75,9 +472,35 @@ public class FamilyTree implements IFamilyTree {
         } catch (SQLException exception) { //Catch the SQLException to throw generic IO exception to hide details from the user.
             throw new IOException("Unable to connect to the database.");
         }
+        personIds.add(id);
         return new PersonIdentityInternal(id, name);
     }
 
+    /**
+     * Adds persons to the external source with the given names inside a single transaction.
+     * Duplicate names can be recorded with new entry created for each record.
+     *
+     * @param names
+     * @return Person Identity types in the order of the names
+     * @throws IOException
+     */
+    @Override
+    public List<PersonIdentityInternal> addPersons(List<String> names) throws IOException {
+        List<Integer> ids;
+        try {
+            ids = familyTreeDAO.addPersons(names);
+        } catch (SQLException exception) { //Catch the SQLException to throw generic IO exception to hide details from the user.
+            throw new IOException("Unable to connect to the database.");
+        }
+
+        var persons = new ArrayList<PersonIdentityInternal>(names.size());
+        for (int index = 0; index < names.size(); index++) {
+            personIds.add(ids.get(index));
+            persons.add(new PersonIdentityInternal(ids.get(index), names.get(index)));
+        }
+        return persons;
+    }
+
     /**
      * Record attributes against a given person in the external source.
      * Predefined attributes inside PersonIdentity type will be updated, and
@@ -92,7 +515,7 @@ public class FamilyTree implements IFamilyTree {
      */
     @Override
     public boolean recordAttributes(PersonIdentityInternal person, Map<String, String> attributes) throws IOException {
-        if (!familyTreeDAO.isPersonExists(person.getPersonId()))
+        if (!personIds.isExists(person.getPersonId()))
             throw new IllegalArgumentException("Person does not exist in the system.");
 
         PersonIdentityInternal personCopy;
@@ -147,7 +570,7 @@ public class FamilyTree implements IFamilyTree {
      */
     @Override
     public boolean recordReference(int personId, String reference) throws IOException {
-        if (!familyTreeDAO.isPersonExists(personId))
+        if (!personIds.isExists(personId))
             throw new IllegalArgumentException("Person does not exist in the system.");
         try {
             //Create a new record for the reference.
@@ -172,7 +595,7 @@ public class FamilyTree implements IFamilyTree {
      */
     @Override
     public boolean recordNote(int personId, String note) throws IOException {
-        if (!familyTreeDAO.isPersonExists(personId))
+        if (!personIds.isExists(personId))
             throw new IllegalArgumentException("Person does not exist in the system.");
         try {
             //Create a new record for the note.
@@ -200,25 +623,8 @@ public class FamilyTree implements IFamilyTree {
         if (attribute == null || attribute.isBlank() || attributeValue == null || attributeValue.isBlank())
             throw new IllegalArgumentException("Invalid attribute values");
 
-        //If there is no record for the attribute types get it from the external source.
-        if (attributeTypes == null || attributeTypes.size() == 0)
-            attributeTypes = familyTreeDAO.getAttributeTypes();
-
-        //Find if current type of attribute is added before.
-        var attributeTypeResult = attributeTypes.stream().
-                filter(x -> x.getDescription().toLowerCase(Locale.ROOT).equals(attribute.toLowerCase(Locale.ROOT))).
-                findFirst().orElse(null);
-
-        //If this type of attribute is not added before, add it to the external source and local cache
-        if (attributeTypeResult == null) {
-            try {
-                int typeId = familyTreeDAO.addAttribute(attribute);
-                attributeTypeResult = new AttributeType(typeId, attribute);
-                attributeTypes.add(attributeTypeResult);
-            } catch (SQLException ex) {
-                throw new IOException("Unable to connect to the database.");
-            }
-        }
+        //Find the type of attribute, if it is not added before, add it to the external source and shared cache.
+        var attributeTypeResult = attributeTypes.getOrCreate(attribute);
         return new Attribute(attributeTypeResult.getTypeId(), attributeValue);
     }
 
@@ -389,58 +795,69 @@ public class FamilyTree implements IFamilyTree {
         if (!validatePersons(parentId, childId))
             return false;
 
-        //Updates the map with parent ,and it's relations from the external source.
-        updateMapWithPerson(parentId);
-
-        //Updates the map with child ,and it's relations from the external source.
-        updateMapWithPerson(childId);
-
-        var relationshipRecords = new ArrayList<PersonRelationshipLite>();
-
-        //Record the information between parent and child to save it to the external source.
-        relationshipRecords.add(new PersonRelationshipLite(parentId, childId,
-                RelationshipTypeEnum.ParentChild.getId()));
-
-        //Checks if the parent has a partner.
-        var parentPartner = personsMap.get(parentId).getPartner();
-
+        //Relationship writes of the same persons are recorded one at a time.
+        var lockedStripes = lockPersons(parentId, childId);
         try {
-            //If the parent has a partner, record its entry as well.
-            if (parentPartner != null) {
+            //Partner of the parent is read from the graph, load the parent only when it is not loaded yet.
+            loadPerson(parentId);
+            var parentVersion = familyGraph.getVersion(parentId);
 
-                //Update the persons map with the parent's partner.
-                updateMapWithPerson(parentPartner.getPersonId());
-
-                //Record the information between parent's partner and child to save it to the external source.
-                relationshipRecords.add(new PersonRelationshipLite(parentPartner.getPersonId(), childId, RelationshipTypeEnum.ParentChild.getId()));
-            }
+            var relationshipRecords = new ArrayList<PersonRelationshipLite>();
 
-            //Update the parent child relationship to the external source.
-            var result = familyTreeDAO.recordRelationship(relationshipRecords);
+            //Record the information between parent and child to save it to the external source.
+            relationshipRecords.add(new PersonRelationshipLite(parentId, childId,
+                    RelationshipTypeEnum.ParentChild.getId()));
 
-            //If the records have been updated to the external source, now update the local cache.
-            if (result) {
+            //Checks if the parent has a partner.
+            var parentPartner = familyGraph.getPartner(parentId);
 
-                //Update child entry to parent inside the local cache.
-                personsMap.get(parentId).addChild(new PersonIdentityLite(childId));
+            try {
+                //If the parent has a partner, record its entry as well.
+                if (parentPartner != FamilyGraph.NOPARTNER) {
 
+                    //Record the information between parent's partner and child to save it to the external source.
+                    relationshipRecords.add(new PersonRelationshipLite(parentPartner, childId, RelationshipTypeEnum.ParentChild.getId()));
+                }
 
-                //Update parent entry to child inside the local cache.
-                personsMap.get(childId).addParent(new PersonIdentityLite(parentId));
+                //Update the parent child relationship to the external source.
+                var result = familyTreeDAO.recordRelationship(relationshipRecords);
 
-                if (parentPartner != null) {
-                    //Update child with the partner as parent in the persons map.
-                    personsMap.get(childId).addParent(new PersonIdentityLite(parentPartner.getPersonId()));
+                //Child is connected to the parent and its partner whatever happens to the local cache.
+                if (result) {
+                    clusterIndex.union(parentId, childId);
+                    if (parentPartner != FamilyGraph.NOPARTNER)
+                        clusterIndex.union(parentPartner, childId);
+                }
 
-                    //Update partner with the child in the persons map.
-                    personsMap.get(parentPartner.getPersonId()).addChild(new PersonIdentityLite(childId));
+                //If the records have been updated to the external source, now update the local cache.
+                if (result && familyGraph.getVersion(parentId) != parentVersion) {
+
+                    //Parent changed while recording, the partner used may be stale so read the persons again on use.
+                    familyGraph.unload(parentId);
+                    familyGraph.unload(childId);
+                    if (parentPartner != FamilyGraph.NOPARTNER)
+                        familyGraph.unload(parentPartner);
+                    ancestorIndex.clear();
+                    relationCache.clear();
+                } else if (result) {
+
+                    //Update child entry to parent, and parent entry to child inside the local cache.
+                    familyGraph.addChild(parentId, childId);
+                    relationCache.invalidate(ancestorIndex.addChild(parentId, childId));
+
+                    //Update child with the partner as parent, and partner with the child inside the local cache.
+                    if (parentPartner != FamilyGraph.NOPARTNER) {
+                        familyGraph.addChild(parentPartner, childId);
+                        relationCache.invalidate(ancestorIndex.addChild(parentPartner, childId));
+                    }
                 }
+                return result;
 
+            } catch (SQLException ex) {
+                throw new IOException("Unable to connect to the database.");
             }
-            return result;
-
-        } catch (SQLException ex) {
-            throw new IOException("Unable to connect to the database.");
+        } finally {
+            unlockPersons(lockedStripes);
         }
     }
 
@@ -458,36 +875,34 @@ public class FamilyTree implements IFamilyTree {
         if (!validatePersons(partner1Id, partner2Id))
             return false;
 
-        //Updates the map with partner 1 ,and it's relations from the external source.
-        updateMapWithPerson(partner1Id);
+        //Relationship writes of the same persons are recorded one at a time.
+        var lockedStripes = lockPersons(partner1Id, partner2Id);
+        try {
+            var relationshipRecords = new ArrayList<PersonRelationshipLite>();
 
-        //Updates the map with partner 2 ,and it's relations from the external source.
-        updateMapWithPerson(partner2Id);
+            //Store partner relationship to store in the external source.
+            relationshipRecords.add(new PersonRelationshipLite(partner1Id, partner2Id, RelationshipTypeEnum.Partner.getId()));
 
-        var relationshipRecords = new ArrayList<PersonRelationshipLite>();
+            try {
+                //Store the  partner relationship in the external source.
+                var result = familyTreeDAO.recordRelationship(relationshipRecords);
 
-        //Store partner relationship to store in the external source.
-        relationshipRecords.add(new PersonRelationshipLite(partner1Id, partner2Id, RelationshipTypeEnum.Partner.getId()));
+                //If the relationship was not stored inside the external source return.
+                if (!result)
+                    return false;
 
-        try {
-            //Store the  partner relationship in the external source.
-            var result = familyTreeDAO.recordRelationship(relationshipRecords);
+            } catch (SQLException ex) {
+                throw new IOException("Unable to connect to the database.");
+            }
 
-            //If the relationship was not stored inside the external source return.
-            if (!result)
-                return false;
+            //Add person 2 as partner to person 1, and person 1 as partner to person 2.
+            familyGraph.setPartner(partner1Id, partner2Id);
+            clusterIndex.union(partner1Id, partner2Id);
 
-        } catch (SQLException ex) {
-            throw new IOException("Unable to connect to the database.");
+            return true;
+        } finally {
+            unlockPersons(lockedStripes);
         }
-
-        //Add person 2 as partner to person 1.
-        personsMap.get(partner1Id).addPartner(new PersonIdentityLite(partner2Id));
-
-        //Add person 1 as partner to person 2.
-        personsMap.get(partner2Id).addPartner(new PersonIdentityLite(partner1Id));
-
-        return true;
     }
 
     /**
@@ -505,36 +920,231 @@ public class FamilyTree implements IFamilyTree {
         if (!validatePersons(partner1Id, partner2Id))
             return false;
 
-        //Updates the map with partner 1 ,and it's relations from the external source.
-        updateMapWithPerson(partner1Id);
+        //Relationship writes of the same persons are recorded one at a time.
+        var lockedStripes = lockPersons(partner1Id, partner2Id);
+        try {
+            var relationshipRecords = new ArrayList<PersonRelationshipLite>();
+
+            //Store partner relationship to store in the external source.
+            relationshipRecords.add(new PersonRelationshipLite(partner1Id, partner2Id, RelationshipTypeEnum.Dissolution.getId()));
+
+            try {
+                //Store the dissolution relationship in the external source.
+                var result = familyTreeDAO.recordRelationship(relationshipRecords);
+
+                //If the relationship was not stored inside the external source return.
+                if (!result)
+                    return false;
 
-        //Updates the map with partner 2 ,and it's relations from the external source.
-        updateMapWithPerson(partner2Id);
+            } catch (SQLException ex) {
+                throw new IOException("Unable to connect to the database.");
+            }
 
-        var relationshipRecords = new ArrayList<PersonRelationshipLite>();
+            //Move person 2 to previous partners of person 1, and person 1 to previous partners of person 2.
+            familyGraph.dissolvePartner(partner1Id, partner2Id);
 
-        //Store partner relationship to store in the external source.
-        relationshipRecords.add(new PersonRelationshipLite(partner1Id, partner2Id, RelationshipTypeEnum.Dissolution.getId()));
+            return true;
+        } finally {
+            unlockPersons(lockedStripes);
+        }
+    }
 
+    /**
+     * Records many parent-child, partnership and dissolution relationships inside a single transaction.
+     * Every relationship is validated like its individual method, relationships failing the validation
+     * are not recorded and do not stop the others. Partner of a parent is not added as parent of the child.
+     *
+     * @param relationships
+     * @return outcome of every relationship in the given order, true if it was recorded.
+     * @throws IOException
+     */
+    @Override
+    public List<Boolean> recordRelationships(List<PersonRelationshipLite> relationships) throws IOException {
+        if (relationships == null)
+            throw new IllegalArgumentException("Relationships cannot be null.");
+
+        var outcomes = new ArrayList<Boolean>(Collections.nCopies(relationships.size(), false));
+        var validRelationships = new ArrayList<PersonRelationshipLite>();
+        var validIndexes = new ArrayList<Integer>();
+        var checkedPersons = new HashMap<Integer, Boolean>();
+
+        for (int index = 0; index < relationships.size(); index++) {
+            var relationship = relationships.get(index);
+
+            //Skip the relationships with unknown type or same persons, these are rejected without saving.
+            if (relationship == null || !isRelationshipTypeValid(relationship.getRelationshipType())
+                    || relationship.getPerson1Id() == relationship.getPerson2Id())
+                continue;
+
+            //Skip the relationships with persons missing in the external source.
+            if (!isPersonExists(relationship.getPerson1Id(), checkedPersons)
+                    || !isPersonExists(relationship.getPerson2Id(), checkedPersons))
+                continue;
+
+            validRelationships.add(relationship);
+            validIndexes.add(index);
+        }
+
+        if (validRelationships.size() == 0)
+            return outcomes;
+
+        //Relationship writes of the same persons are recorded one at a time.
+        var involvedIds = new int[validRelationships.size() * 2];
+        for (int index = 0; index < validRelationships.size(); index++) {
+            involvedIds[index * 2] = validRelationships.get(index).getPerson1Id();
+            involvedIds[index * 2 + 1] = validRelationships.get(index).getPerson2Id();
+        }
+        var lockedStripes = lockPersons(involvedIds);
         try {
-            //Store the dissolution relationship in the external source.
-            var result = familyTreeDAO.recordRelationship(relationshipRecords);
+            List<Boolean> results;
+            try {
+                //Store all the valid relationships in the external source.
+                results = familyTreeDAO.recordRelationships(validRelationships);
+            } catch (SQLException ex) {
+                throw new IOException("Unable to connect to the database.");
+            }
 
-            //If the relationship was not stored inside the external source return.
-            if (!result)
-                return false;
+            for (int index = 0; index < results.size(); index++) {
+                if (!results.get(index))
+                    continue;
+                outcomes.set(validIndexes.get(index), true);
+
+                //Relations of both the persons have changed, update them inside the local cache.
+                var relationship = validRelationships.get(index);
+                clusterIndex.union(relationship.getPerson1Id(), relationship.getPerson2Id());
+                if (relationship.getRelationshipType() == RelationshipTypeEnum.ParentChild.getId()) {
+                    familyGraph.addChild(relationship.getPerson1Id(), relationship.getPerson2Id());
+                    relationCache.invalidate(ancestorIndex.addChild(relationship.getPerson1Id(), relationship.getPerson2Id()));
+                } else if (relationship.getRelationshipType() == RelationshipTypeEnum.Partner.getId())
+                    familyGraph.setPartner(relationship.getPerson1Id(), relationship.getPerson2Id());
+                else
+                    familyGraph.dissolvePartner(relationship.getPerson1Id(), relationship.getPerson2Id());
+            }
+        } finally {
+            unlockPersons(lockedStripes);
+        }
+        return outcomes;
+    }
 
-        } catch (SQLException ex) {
-            throw new IOException("Unable to connect to the database.");
+    /**
+     * Locks the stripes of the given persons, always in ascending order so that writers never wait on each other
+     * in a cycle.
+     *
+     * @param personIds
+     * @return stripes locked, to be passed to unlockPersons.
+     */
+    private int[] lockPersons(int... personIds) {
+        var stripes = new BitSet(LOCKSTRIPES);
+        for (var personId : personIds) {
+            stripes.set(Math.floorMod(personId, LOCKSTRIPES));
+        }
+        var lockedStripes = stripes.stream().toArray();
+        for (var stripe : lockedStripes) {
+            personLocks[stripe].lock();
         }
+        return lockedStripes;
+    }
 
-        //Remove person 2 as partner to person 1.
-        personsMap.get(partner1Id).removePartner(new PersonIdentityLite(partner2Id));
+    /**
+     * Locks all the stripes in ascending order, no relationship can be recorded until they are unlocked.
+     *
+     * @return stripes locked, to be passed to unlockPersons.
+     */
+    private int[] lockAllPersons() {
+        var lockedStripes = new int[LOCKSTRIPES];
+        for (int stripe = 0; stripe < LOCKSTRIPES; stripe++) {
+            personLocks[stripe].lock();
+            lockedStripes[stripe] = stripe;
+        }
+        return lockedStripes;
+    }
 
-        //Remove person 1 as partner to person 2.
-        personsMap.get(partner2Id).removePartner(new PersonIdentityLite(partner1Id));
+    /**
+     * Applies a relation change read from the external source to the family graph, when the graph does not have
+     * it yet. Changes recorded by this process are already inside the graph and are skipped.
+     *
+     * @param change
+     */
+    private void applyRelationChange(PersonRelationshipLite change) {
+        applyRelationChange(familyGraph, ancestorIndex, clusterIndex, change);
+    }
 
-        return true;
+    /**
+     * Applies a relation change to the given family graph and its indexes, when the graph does not have it yet.
+     *
+     * @param graph
+     * @param graphAncestorIndex
+     * @param graphClusterIndex
+     * @param change
+     */
+    private void applyRelationChange(FamilyGraph graph, AncestorIndex graphAncestorIndex,
+                                     ClusterIndex graphClusterIndex, PersonRelationshipLite change) {
+        var person1Id = change.getPerson1Id();
+        var person2Id = change.getPerson2Id();
+        graphClusterIndex.union(person1Id, person2Id);
+        if (change.getRelationshipType() == RelationshipTypeEnum.ParentChild.getId()) {
+            if (contains(graph.getChildren(person1Id), person2Id))
+                return;
+            graph.addChild(person1Id, person2Id);
+            relationCache.invalidate(graphAncestorIndex.addChild(person1Id, person2Id));
+        } else if (change.getRelationshipType() == RelationshipTypeEnum.Partner.getId() && change.getIsActive() == 1) {
+            if (graph.getPartner(person1Id) != person2Id)
+                graph.setPartner(person1Id, person2Id);
+        } else if (change.getRelationshipType() == RelationshipTypeEnum.Partner.getId()) {
+            if (graph.getPartner(person1Id) == person2Id
+                    || !contains(graph.getPreviousPartners(person1Id), person2Id))
+                graph.dissolvePartner(person1Id, person2Id);
+        }
+    }
+
+    private boolean contains(int[] ids, int id) {
+        for (var existing : ids) {
+            if (existing == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Unlocks the stripes locked by lockPersons.
+     *
+     * @param lockedStripes
+     */
+    private void unlockPersons(int[] lockedStripes) {
+        for (int index = lockedStripes.length - 1; index >= 0; index--) {
+            personLocks[lockedStripes[index]].unlock();
+        }
+    }
+
+    /**
+     * Checks if the relationship type is one of the known relationship types.
+     *
+     * @param relationshipType
+     * @return true if the relationship type is known.
+     */
+    private boolean isRelationshipTypeValid(int relationshipType) {
+        for (var type : RelationshipTypeEnum.values()) {
+            if (type.getId() == relationshipType)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the person exists in the external source, remembering the persons already checked.
+     *
+     * @param personId
+     * @param checkedPersons
+     * @return true if the person exists in the external source.
+     * @throws IOException
+     */
+    private boolean isPersonExists(int personId, Map<Integer, Boolean> checkedPersons) throws IOException {
+        var isExists = checkedPersons.get(personId);
+        if (isExists == null) {
+            isExists = personIds.isExists(personId);
+            checkedPersons.put(personId, isExists);
+        }
+        return isExists;
     }
 
     /**
@@ -547,7 +1157,7 @@ public class FamilyTree implements IFamilyTree {
      */
     private boolean validatePersons(int person1, int person2) throws IOException {
         //Check if the persons exist in the external source.
-        if (!(familyTreeDAO.isPersonExists(person1) && familyTreeDAO.isPersonExists(person2)))
+        if (!(personIds.isExists(person1) && personIds.isExists(person2)))
             throw new IllegalArgumentException("Person does not exist in the system.");
 
         //Check if person 1 and person 2 are same.
@@ -558,31 +1168,31 @@ public class FamilyTree implements IFamilyTree {
     }
 
     /**
-     * Updates the map with person and its relations like parents, partner and children.
+     * Updates the graph with person and its relations like parents, partner and children.
      *
      * @param personId
+     * @return true if the relations were found inside the external source and loaded.
      */
-    private void updateMapWithPerson(int personId) {
-        //Find the person,and it's relations from the external source.
-        var person = report.findPersonRelations(personId);
-
-        //If no relations were found for the person inside the external source, make a fresh entry to the persons map.
-        if (person == null)
-            //If the map already contains a key, update it with the latest data.
-            if (personsMap.containsKey(personId))
-                personsMap.replace(personId, new PersonRelations(personId));
-            else
-                //Create a fresh entry
-                personsMap.put(personId, new PersonRelations(personId));
-            //If relations were found.
-        else {
-            //If the map already contains a key, update it with the latest data.
-            if (personsMap.containsKey(personId))
-                personsMap.replace(personId, person);
-            else
-                //Create a fresh entry
-                personsMap.put(personId, person);
+    private boolean reloadPerson(int personId) {
+        for (int attempt = 1; attempt <= LOADATTEMPTS; attempt++) {
+            //Version before reading, the person is read again when it is written meanwhile.
+            var version = familyGraph.getVersion(personId);
+
+            //Find the person,and it's relations from the external source.
+            var person = report.findPersonRelations(personId);
+
+            //If the relations could not be read from the external source, forget the stale entry of the graph.
+            if (person == null) {
+                familyGraph.unload(personId);
+                return false;
+            }
+
+            if (familyGraph.load(person, version))
+                return true;
         }
+
+        //Person still written while being read is left to be loaded on use, rather than loaded with stale relations.
+        return false;
     }
 
 }
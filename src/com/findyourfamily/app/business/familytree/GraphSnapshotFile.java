@@ -0,0 +1,243 @@
+package com.findyourfamily.app.business.familytree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Binary file holding a snapshot of the family graph, so that the graph is read back at startup instead of being
+ * rebuilt from the external source. The file starts with a header carrying the last relation change included in
+ * the graph, followed by int packed sections:
+ * <pre>
+ * int magic, int format, long relation change, int person count, int parents, int children, int previous partners
+ * long[] loaded persons bits
+ * int[] partners by person id
+ * int[] parent offsets, int[] child offsets, int[] previous partner offsets, person count + 1 each
+ * int[] parents, int[] children, int[] previous partners
+ * </pre>
+ * The relations of a person are found between its offset and the offset of the next person. The file is read
+ * through a memory mapping, without copying it into a heap buffer first.
+ */
+public class GraphSnapshotFile {
+
+    //Marks the start of a snapshot file, "FYFG".
+    private static final int MAGIC = 0x46594647;
+
+    //Version of the file layout, files with another version are ignored.
+    private static final int FORMAT = 1;
+
+    //Size of the header in bytes.
+    private static final int HEADERSIZE = 4 + 4 + 8 + 4 * 4;
+
+    private GraphSnapshotFile() {
+    }
+
+    /**
+     * Writes the snapshot of the family graph to the file. The file is written to a temporary file of its own next
+     * to the given path and moved over it once complete, so a reader never sees a partial file and concurrent
+     * writers never share a temporary file.
+     *
+     * @param path
+     * @param snapshot
+     * @param relationChangeId last relation change included inside the snapshot.
+     * @throws IOException
+     */
+    public static void write(Path path, FamilyGraph.Snapshot snapshot, long relationChangeId) throws IOException {
+        var personCount = snapshot.getMaxPersonId() + 1;
+
+        //Sizes of the sections are needed by the header, before the relations are written.
+        long parentCount = 0, childCount = 0, previousPartnerCount = 0;
+        for (int personId = 1; personId < personCount; personId++) {
+            parentCount += snapshot.getParents(personId).length;
+            childCount += snapshot.getChildren(personId).length;
+            previousPartnerCount += snapshot.getPreviousPartners(personId).length;
+        }
+        if (fileSize(personCount, parentCount + childCount + previousPartnerCount) > Integer.MAX_VALUE)
+            throw new IOException("Family graph is too large for a snapshot file.");
+
+        var temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+        try {
+            write(temporaryPath, snapshot, relationChangeId, personCount, parentCount, childCount, previousPartnerCount);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Writes the header and the sections of the snapshot file.
+     *
+     * @param temporaryPath
+     * @param snapshot
+     * @param relationChangeId
+     * @param personCount
+     * @param parentCount
+     * @param childCount
+     * @param previousPartnerCount
+     * @throws IOException
+     */
+    private static void write(Path temporaryPath, FamilyGraph.Snapshot snapshot, long relationChangeId,
+                              int personCount, long parentCount, long childCount, long previousPartnerCount)
+            throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT);
+            output.writeLong(relationChangeId);
+            output.writeInt(personCount);
+            output.writeInt((int) parentCount);
+            output.writeInt((int) childCount);
+            output.writeInt((int) previousPartnerCount);
+
+            for (int word = 0; word < wordCount(personCount); word++) {
+                long bits = 0;
+                for (int bit = 0; bit < 64 && word * 64 + bit < personCount; bit++) {
+                    if (snapshot.isLoaded(word * 64 + bit))
+                        bits |= 1L << bit;
+                }
+                output.writeLong(bits);
+            }
+            for (int personId = 0; personId < personCount; personId++) {
+                output.writeInt(snapshot.getPartner(personId));
+            }
+
+            writeOffsets(output, personCount, personId -> snapshot.getParents(personId).length);
+            writeOffsets(output, personCount, personId -> snapshot.getChildren(personId).length);
+            writeOffsets(output, personCount, personId -> snapshot.getPreviousPartners(personId).length);
+            writeIds(output, personCount, snapshot::getParents);
+            writeIds(output, personCount, snapshot::getChildren);
+            writeIds(output, personCount, snapshot::getPreviousPartners);
+        }
+    }
+
+    /**
+     * Reads the snapshot file into an empty family graph, as a single version of the graph.
+     *
+     * @param path
+     * @param graph
+     * @return last relation change included inside the snapshot.
+     * @throws IOException
+     */
+    public static long read(Path path, FamilyGraph graph) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADERSIZE || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Invalid family graph snapshot file.");
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+                throw new IOException("Invalid family graph snapshot file.");
+            var relationChangeId = buffer.getLong();
+            var personCount = buffer.getInt();
+            var parentCount = buffer.getInt();
+            var childCount = buffer.getInt();
+            var previousPartnerCount = buffer.getInt();
+            if (personCount < 1 || parentCount < 0 || childCount < 0 || previousPartnerCount < 0
+                    || buffer.capacity() != fileSize(personCount, (long) parentCount + childCount + previousPartnerCount))
+                throw new IOException("Invalid family graph snapshot file.");
+
+            //Views over every section of the mapping.
+            var loaded = section(buffer, 8 * wordCount(personCount)).asLongBuffer();
+            var partners = section(buffer, 4 * personCount).asIntBuffer();
+            var parentOffsets = section(buffer, 4 * (personCount + 1)).asIntBuffer();
+            var childOffsets = section(buffer, 4 * (personCount + 1)).asIntBuffer();
+            var previousPartnerOffsets = section(buffer, 4 * (personCount + 1)).asIntBuffer();
+            var parents = section(buffer, 4 * parentCount).asIntBuffer();
+            var children = section(buffer, 4 * childCount).asIntBuffer();
+            var previousPartners = section(buffer, 4 * previousPartnerCount).asIntBuffer();
+
+            graph.batch(() -> {
+                for (int personId = 1; personId < personCount; personId++) {
+                    var isLoaded = isLoaded(loaded, personId);
+                    var personParents = readIds(parents, parentOffsets, personId);
+                    var personChildren = readIds(children, childOffsets, personId);
+                    var personPreviousPartners = readIds(previousPartners, previousPartnerOffsets, personId);
+                    var partnerId = partners.get(personId);
+
+                    //Persons never seen by the graph are left out.
+                    if (isLoaded || partnerId != FamilyGraph.NOPARTNER || personParents.length > 0
+                            || personChildren.length > 0 || personPreviousPartners.length > 0)
+                        graph.restore(personId, personParents, personChildren, personPreviousPartners, partnerId,
+                                isLoaded);
+                }
+            });
+            return relationChangeId;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException exception) {
+            throw new IOException("Invalid family graph snapshot file.");
+        }
+    }
+
+    /**
+     * Gets the given number of bytes starting at the current position as their own buffer, and moves past them.
+     *
+     * @param buffer
+     * @param length
+     * @return buffer over the section.
+     */
+    private static ByteBuffer section(ByteBuffer buffer, int length) {
+        var section = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+
+    private static boolean isLoaded(LongBuffer loaded, int personId) {
+        return (loaded.get(personId >> 6) & (1L << personId)) != 0;
+    }
+
+    /**
+     * Reads the ids of a person out of a section, between its offset and the offset of the next person.
+     *
+     * @param ids
+     * @param offsets
+     * @param personId
+     * @return ids of the person.
+     */
+    private static int[] readIds(IntBuffer ids, IntBuffer offsets, int personId) {
+        var start = offsets.get(personId);
+        var personIds = new int[offsets.get(personId + 1) - start];
+        ids.get(start, personIds);
+        return personIds;
+    }
+
+    private static void writeOffsets(DataOutputStream output, int personCount, IntUnaryOperator lengths)
+            throws IOException {
+        int offset = 0;
+        output.writeInt(0);
+        for (int personId = 0; personId < personCount; personId++) {
+            offset += lengths.applyAsInt(personId);
+            output.writeInt(offset);
+        }
+    }
+
+    private static void writeIds(DataOutputStream output, int personCount, IntFunction<int[]> ids)
+            throws IOException {
+        for (int personId = 1; personId < personCount; personId++) {
+            for (var id : ids.apply(personId)) {
+                output.writeInt(id);
+            }
+        }
+    }
+
+    /**
+     * Gets the size of a snapshot file in bytes.
+     *
+     * @param personCount
+     * @param relationCount parents, children and previous partners of all the persons.
+     * @return file size.
+     */
+    private static long fileSize(int personCount, long relationCount) {
+        return HEADERSIZE + 8L * wordCount(personCount) + 4L * personCount + 12L * (personCount + 1) + 4L * relationCount;
+    }
+
+    private static int wordCount(int personCount) {
+        return (personCount + 63) >> 6;
+    }
+}
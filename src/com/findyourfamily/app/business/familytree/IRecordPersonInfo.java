@@ -3,6 +3,7 @@ package com.findyourfamily.app.business.familytree;
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,6 +22,16 @@ public interface IRecordPersonInfo {
      */
     PersonIdentityInternal addPerson(String name) throws IOException;
 
+    /**
+     * Adds persons to the external source with the given names inside a single transaction.
+     * Duplicate names can be recorded with new entry created for each record.
+     *
+     * @param names
+     * @return Person Identity types in the order of the names
+     * @throws IOException
+     */
+    List<PersonIdentityInternal> addPersons(List<String> names) throws IOException;
+
     /**
      * Record attributes against a given person in the external source.
      * Predefined attributes inside PersonIdentity type will be updated, and
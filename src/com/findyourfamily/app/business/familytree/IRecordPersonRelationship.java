@@ -1,9 +1,11 @@
 package com.findyourfamily.app.business.familytree;
 
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
+import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Interface type for recording relations of a person.
@@ -40,4 +42,15 @@ public interface IRecordPersonRelationship {
      * @throws SQLException
      */
     boolean recordDissolution(int partner1Id, int partner2Id) throws IOException;
+
+    /**
+     * Records many parent-child, partnership and dissolution relationships inside a single transaction.
+     * Every relationship is validated like its individual method, relationships failing the validation
+     * are not recorded and do not stop the others. Partner of a parent is not added as parent of the child.
+     *
+     * @param relationships
+     * @return outcome of every relationship in the given order, true if it was recorded.
+     * @throws IOException
+     */
+    List<Boolean> recordRelationships(List<PersonRelationshipLite> relationships) throws IOException;
 }
@@ -0,0 +1,197 @@
+package com.findyourfamily.app.business.familytree;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Traversal of the descendants or ancestors of a person over the family graph, expanding every generation in
+ * parallel inside a fork/join pool. A generation is split in halves until the parts are below the sequential
+ * threshold, and idle workers steal the parts still waiting. Persons are marked inside a visited bitset shared by
+ * all the workers, so every person is expanded once. Generations smaller than the threshold are expanded on the
+ * calling thread, as splitting them costs more than it saves.
+ */
+public class ParallelTraversal {
+
+    //Pool running the expansion of large generations.
+    private final ForkJoinPool pool;
+
+    //Number of persons below which a generation, or a part of it, is expanded on a single thread.
+    private final int sequentialThreshold;
+
+    public ParallelTraversal(ForkJoinPool pool, int sequentialThreshold) {
+        if (sequentialThreshold < 1)
+            throw new IllegalArgumentException("Threshold cannot be less than 1.");
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    /**
+     * Finds the descendants or ancestors of a person up to the given generations. Persons of a generation not
+     * loaded inside the graph are loaded with the given loader before the generation is expanded.
+     *
+     * @param familyGraph
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @param loader loads the relations of the persons, returns false when they could not be loaded.
+     * @return ids of the relatives found.
+     */
+    public Set<Integer> findRelatives(FamilyGraph familyGraph, int personId, int generations, boolean isDescendants,
+                                      Predicate<Set<Integer>> loader) {
+        Set<Integer> relativeIds = new HashSet<>();
+        var visited = new VisitedSet(familyGraph.getSnapshot().getMaxPersonId() + 1);
+        visited.add(personId);
+        int[] frontier = {personId};
+
+        for (int generation = 0; generation < generations && frontier.length > 0; generation++) {
+            //Only the persons missing from the graph are passed to the loader.
+            var missingIds = new HashSet<Integer>();
+            var snapshot = familyGraph.getSnapshot();
+            for (var frontierId : frontier) {
+                if (!snapshot.isLoaded(frontierId))
+                    missingIds.add(frontierId);
+            }
+            if (!missingIds.isEmpty()) {
+                if (!loader.test(missingIds))
+                    throw new IllegalArgumentException("Person does not exist in the system.");
+                snapshot = familyGraph.getSnapshot();
+            }
+
+            visited.ensureCapacity(snapshot.getMaxPersonId() + 1);
+            var expansion = new Expansion(snapshot, visited, isDescendants, frontier, 0, frontier.length);
+            frontier = frontier.length < sequentialThreshold ? expansion.compute() : pool.invoke(expansion);
+
+            for (var relativeId : frontier) {
+                relativeIds.add(relativeId);
+            }
+        }
+        return relativeIds;
+    }
+
+    /**
+     * Expansion of a part of a generation, giving the persons of the next generation not visited before.
+     */
+    private final class Expansion extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FamilyGraph.Snapshot snapshot;
+        private final VisitedSet visited;
+        private final boolean isDescendants;
+        private final int[] frontier;
+        private final int start;
+        private final int end;
+
+        private Expansion(FamilyGraph.Snapshot snapshot, VisitedSet visited, boolean isDescendants, int[] frontier,
+                          int start, int end) {
+            this.snapshot = snapshot;
+            this.visited = visited;
+            this.isDescendants = isDescendants;
+            this.frontier = frontier;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (end - start > sequentialThreshold) {
+                var middle = (start + end) >>> 1;
+                var left = new Expansion(snapshot, visited, isDescendants, frontier, start, middle);
+                left.fork();
+                var right = new Expansion(snapshot, visited, isDescendants, frontier, middle, end).compute();
+                return concat(left.join(), right);
+            }
+
+            var nextFrontier = new int[Math.max(4, (end - start) * 2)];
+            int nextFrontierSize = 0;
+            for (int frontierIndex = start; frontierIndex < end; frontierIndex++) {
+                var currentId = frontier[frontierIndex];
+                var relatives = isDescendants ? snapshot.getChildren(currentId) : snapshot.getParents(currentId);
+                for (var relativeId : relatives) {
+                    //Only the worker marking the person first adds it to the next generation.
+                    if (!visited.add(relativeId))
+                        continue;
+
+                    if (nextFrontierSize == nextFrontier.length)
+                        nextFrontier = Arrays.copyOf(nextFrontier, nextFrontierSize * 2);
+                    nextFrontier[nextFrontierSize++] = relativeId;
+                }
+            }
+            return Arrays.copyOf(nextFrontier, nextFrontierSize);
+        }
+
+        private int[] concat(int[] first, int[] second) {
+            var joined = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, joined, first.length, second.length);
+            return joined;
+        }
+    }
+
+    /**
+     * Bitset of the visited persons, marked by many workers at once with compare and set. Relatives of a loaded
+     * person may not have a page inside the graph yet, so persons above the capacity are kept in a set instead.
+     */
+    private static final class VisitedSet {
+        private AtomicLongArray words;
+        private final Set<Integer> overflowIds = ConcurrentHashMap.newKeySet();
+
+        private VisitedSet(int capacity) {
+            words = new AtomicLongArray(wordCount(capacity));
+        }
+
+        /**
+         * Marks the person as visited.
+         *
+         * @param personId
+         * @return true if the person was not visited before.
+         */
+        private boolean add(int personId) {
+            var wordIndex = personId >> 6;
+            if (wordIndex >= words.length())
+                return overflowIds.add(personId);
+
+            var mask = 1L << personId;
+            while (true) {
+                var word = words.get(wordIndex);
+                if ((word & mask) != 0)
+                    return false;
+                if (words.compareAndSet(wordIndex, word, word | mask))
+                    return true;
+            }
+        }
+
+        /**
+         * Grows the bitset to hold the given number of persons, only called between generations. Persons of
+         * the overflow set now inside the capacity are moved into the bitset.
+         *
+         * @param capacity
+         */
+        private void ensureCapacity(int capacity) {
+            if (wordCount(capacity) <= words.length())
+                return;
+            var grown = new AtomicLongArray(wordCount(capacity));
+            for (int index = 0; index < words.length(); index++) {
+                grown.set(index, words.get(index));
+            }
+            words = grown;
+
+            var iterator = overflowIds.iterator();
+            while (iterator.hasNext()) {
+                var personId = iterator.next();
+                if ((personId >> 6) >= words.length())
+                    continue;
+                words.set(personId >> 6, words.get(personId >> 6) | (1L << personId));
+                iterator.remove();
+            }
+        }
+
+        private static int wordCount(int capacity) {
+            return (capacity + 63) >> 6;
+        }
+    }
+}
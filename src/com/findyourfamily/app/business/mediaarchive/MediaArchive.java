@@ -1,10 +1,11 @@
 package com.findyourfamily.app.business.mediaarchive;
 
+import com.findyourfamily.app.business.cache.AttributeTypeDictionary;
+import com.findyourfamily.app.business.cache.ExistenceIndex;
 import com.findyourfamily.app.database.media.IMediaArchiveGateway;
 import com.findyourfamily.app.database.media.MediaArchiveGateway;
 import com.findyourfamily.app.models.domain.*;
 import com.findyourfamily.app.common.enums.MediaAttributesEnum;
-import com.findyourfamily.app.models.shared.AttributeType;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -24,10 +25,15 @@ public class MediaArchive implements IMediaArchive {
     private IMediaArchiveGateway mediaArchiveDAO;
 
     //Stores all the attributes present inside the external source.
-    private List<AttributeType> attributeTypes;
+    private AttributeTypeDictionary attributeTypes;
+
+    //Stores the ids of all the media present inside the external source.
+    private ExistenceIndex mediaIds;
 
     public MediaArchive() {
         mediaArchiveDAO = new MediaArchiveGateway();
+        attributeTypes = AttributeTypeDictionary.getMediaDictionary();
+        mediaIds = ExistenceIndex.getMediaIndex();
     }
 
     /**
@@ -56,6 +62,7 @@ public class MediaArchive implements IMediaArchive {
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to the database.");
         }
+        mediaIds.add(id);
 
         return new FileIdentifierInternal(id, fileName, fileLocation);
     }
@@ -74,7 +81,7 @@ public class MediaArchive implements IMediaArchive {
      */
     @Override
     public boolean recordMediaAttributes(FileIdentifierInternal fileIdentifier, Map<String, String> attributes) throws IOException {
-        if (!mediaArchiveDAO.isMediaExists(fileIdentifier.getMediaId()))
+        if (!mediaIds.isExists(fileIdentifier.getMediaId()))
             throw new IllegalArgumentException("Media does not exist in the system.");
         boolean result;
         boolean isUpdateFileIdentityRequired = false;
@@ -116,7 +123,7 @@ public class MediaArchive implements IMediaArchive {
      */
     @Override
     public boolean peopleInMedia(int mediaId, List<Integer> personIds) throws IOException {
-        if (!mediaArchiveDAO.isMediaExists(mediaId))
+        if (!mediaIds.isExists(mediaId))
             throw new IllegalArgumentException("Media does not exist in the system.");
         return mediaArchiveDAO.addPersonMediaMapping(personIds, mediaId);
     }
@@ -130,7 +137,7 @@ public class MediaArchive implements IMediaArchive {
      */
     @Override
     public boolean tagMedia(int mediaId, String tag) throws IOException {
-        if (!mediaArchiveDAO.isMediaExists(mediaId))
+        if (!mediaIds.isExists(mediaId))
             throw new IllegalArgumentException("Media does not exist in the system.");
         try {
             //Create a new record for the note.
@@ -158,29 +165,8 @@ public class MediaArchive implements IMediaArchive {
         if (attributeValue == null || attributeValue.isBlank() || attributeValue == null || attributeValue.isBlank())
             throw new IllegalArgumentException("Invalid attribute values");
 
-        //If there is no record for the attributes get it from the database.
-        if (attributeTypes == null || attributeTypes.size() == 0) {
-            try {
-                attributeTypes = mediaArchiveDAO.getAttributeTypes();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
-
-        //Find if current type of attribute is added before.
-        var attributeTypeResult = attributeTypes.stream().
-                filter(x -> x.getDescription().toLowerCase(Locale.ROOT).equals(attribute.toLowerCase(Locale.ROOT))).findFirst().orElse(null);
-
-        //If this type of attribute is not added before, add it to the database and local cache
-        if (attributeTypeResult == null) {
-            try {
-                int typeId = mediaArchiveDAO.addAttribute(attribute);
-                attributeTypeResult = new AttributeType(typeId, attribute);
-                attributeTypes.add(attributeTypeResult);
-            } catch (SQLException ex) {
-                throw new IOException("Unable to add new attribute in the database.");
-            }
-        }
+        //Find the type of attribute, if it is not added before, add it to the database and shared cache.
+        var attributeTypeResult = attributeTypes.getOrCreate(attribute);
         return new Attribute(attributeTypeResult.getTypeId(), attributeValue);
     }
 
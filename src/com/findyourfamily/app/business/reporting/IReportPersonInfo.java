@@ -4,6 +4,8 @@ import com.findyourfamily.app.models.domain.PersonIdentityInternal;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Type for reporting features related to a person.
@@ -29,6 +31,15 @@ public interface IReportPersonInfo {
      */
     String findName(int id) throws IOException;
 
+    /**
+     * Finds the names corresponding to the persons' ids.
+     *
+     * @param ids
+     * @return names by person id, ids not present in the external source are left out.
+     * @throws IOException
+     */
+    Map<Integer, String> findNames(Set<Integer> ids) throws IOException;
+
     /**
      * Returns list of notes and references for a given person.
      *
@@ -2,8 +2,12 @@ package com.findyourfamily.app.business.reporting;
 
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
 import com.findyourfamily.app.models.domain.PersonRelations;
+import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
+import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Type for reporting information related to a person.
@@ -18,6 +22,24 @@ public interface IReportRelationInfo {
      */
     PersonRelations findPersonRelations(int personId);
 
+    /**
+     * Find all the relations for the given persons, with a single round trip for every chunk of persons.
+     *
+     * @param personIds
+     * @return relations by person id for every given person, null when they could not be read.
+     */
+    Map<Integer, PersonRelations> findPersonsRelations(Set<Integer> personIds);
+
+    /**
+     * Find the descendants or ancestors of a person up to the given generations, computed inside the external source.
+     *
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @return generation of every relative by person id, null when they could not be read.
+     */
+    Map<Integer, Integer> findRelatives(int personId, int generations, boolean isDescendants);
+
     /**
      * Find person information for given person id's.
      *
@@ -25,4 +47,31 @@ public interface IReportRelationInfo {
      * @return set of person identity information for list of a person id's.
      */
     Set<PersonIdentityInternal> findPersons(Set<Integer> personIds);
+
+    /**
+     * Reads all the relations between persons, passing every relation to the consumer as soon as it is read.
+     *
+     * @param consumer
+     * @return number of relations read.
+     * @throws IOException
+     */
+    int streamAllRelations(Consumer<PersonRelationshipLite> consumer) throws IOException;
+
+    /**
+     * Gets the id of the last change made to the relations between persons.
+     *
+     * @return last change id.
+     * @throws IOException
+     */
+    long getLastRelationChange() throws IOException;
+
+    /**
+     * Reads the changes made to the relations between persons after the given change, in the order they were made.
+     *
+     * @param afterChangeId
+     * @param consumer
+     * @return id of the last change read.
+     * @throws IOException
+     */
+    long streamRelationChanges(long afterChangeId, Consumer<PersonRelationshipLite> consumer) throws IOException;
 }
@@ -1,17 +1,18 @@
 package com.findyourfamily.app.business.reporting;
 
-import com.findyourfamily.app.database.familytree.FamilyTreeGateway;
-import com.findyourfamily.app.database.familytree.IFamilyTreeGateway;
+import com.findyourfamily.app.business.cache.ExistenceIndex;
 import com.findyourfamily.app.database.media.IMediaArchiveGateway;
 import com.findyourfamily.app.database.media.MediaArchiveGateway;
 import com.findyourfamily.app.database.reporting.*;
 import com.findyourfamily.app.models.domain.*;
+import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Interface type for reporting features of a person, media and person relations.
@@ -25,13 +26,15 @@ public class Report implements IReport {
     private IReportPersonInfoGateway reportPersonInfoDAO;
     private IReportMediaInfoGateway reportMediaInfoDAO;
     private IReportRelationsInfoGateway reportRelationsInfoDAO;
-    private IFamilyTreeGateway familyTreeGateway;
+
+    //Stores the ids of all the persons present inside the external source.
+    private ExistenceIndex personIds;
 
     public Report() {
         reportPersonInfoDAO = new ReportPersonInfoGateway();
         reportMediaInfoDAO = new ReportMediaInfoGateway();
         reportRelationsInfoDAO = new ReportRelationsInfoGateway();
-        familyTreeGateway = new FamilyTreeGateway();
+        personIds = ExistenceIndex.getPersonIndex();
     }
 
     /**
@@ -55,20 +58,31 @@ public class Report implements IReport {
                 return null;
             reportPersonInfoDAO.fillAttributes(person, true);
             var personRelations = findPersonRelations(person.getPersonId());
+            if (personRelations == null)
+                throw new IOException("Unable to connect to database.");
+
+            //Resolves the names of all the relations together.
+            Set<Integer> relationIds = new HashSet<>();
+            if (personRelations.getPartner() != null)
+                relationIds.add(personRelations.getPartner().getPersonId());
+            personRelations.getParents().forEach(parent -> relationIds.add(parent.getPersonId()));
+            personRelations.getChildren().forEach(child -> relationIds.add(child.getPersonId()));
+            personRelations.getPreviousPartners().forEach(previousPartner -> relationIds.add(previousPartner.getPersonId()));
+            var names = reportPersonInfoDAO.findNames(relationIds);
 
             if (personRelations.getPartner() != null)
-                person.setPartner(findName(personRelations.getPartner().getPersonId()));
+                person.setPartner(names.get(personRelations.getPartner().getPersonId()));
 
             for (var parent : personRelations.getParents()) {
-                person.addParent(findName(parent.getPersonId()));
+                person.addParent(names.get(parent.getPersonId()));
             }
 
             for (var child : personRelations.getChildren()) {
-                person.setChildren(findName(child.getPersonId()));
+                person.setChildren(names.get(child.getPersonId()));
             }
 
             for (var previousPartner : personRelations.getPreviousPartners()) {
-                person.setPreviousPartners(findName(previousPartner.getPersonId()));
+                person.setPreviousPartners(names.get(previousPartner.getPersonId()));
             }
 
         } catch (SQLException sqlException) {
@@ -96,6 +110,24 @@ public class Report implements IReport {
         return name;
     }
 
+    /**
+     * Finds the names corresponding to the persons' ids.
+     *
+     * @param ids
+     * @return names by person id, ids not present in the external source are left out.
+     * @throws IOException
+     */
+    @Override
+    public Map<Integer, String> findNames(Set<Integer> ids) throws IOException {
+        Map<Integer, String> names;
+        try {
+            names = reportPersonInfoDAO.findNames(ids);
+        } catch (SQLException sqlException) {
+            throw new IOException("Unable to connect to database.");
+        }
+        return names;
+    }
+
     /**
      * Returns list of notes and references for a given person with all attributes set as false.
      *
@@ -105,7 +137,7 @@ public class Report implements IReport {
      */
     @Override
     public List<String> notesAndReferences(PersonIdentityInternal person) throws IOException {
-        if (!familyTreeGateway.isPersonExists(person.getPersonId()))
+        if (!personIds.isExists(person.getPersonId()))
             throw new IllegalArgumentException("Person does not exist in the system.");
         try {
             reportPersonInfoDAO.fillAttributes(person, false);
@@ -132,8 +164,10 @@ public class Report implements IReport {
             reportMediaInfoDAO.fillAttributes(fileIdentifier);
             var personsList = reportPersonInfoDAO.findPersonsInMedia(fileIdentifier.getMediaId());
 
+            var names = reportPersonInfoDAO.findNames(new HashSet<>(personsList));
+
             for (var personId : personsList) {
-                fileIdentifier.addPersonsInMedia(findName(personId));
+                fileIdentifier.addPersonsInMedia(names.get(personId));
             }
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to the database.");
@@ -163,32 +197,86 @@ public class Report implements IReport {
      * Find all the relations for a given person which includes partner, parents and children.
      *
      * @param personId
-     * @return set of person relations for a given person.
+     * @return set of person relations for a given person, null when they could not be read.
      */
     @Override
     public PersonRelations findPersonRelations(int personId) {
         var personRelationsInfo = reportRelationsInfoDAO.getPersonRelations(personId);
+        if (personRelationsInfo == null)
+            return null;
         var personRelation = new PersonRelations(personId);
         for (var relation : personRelationsInfo) {
-            //If relation is partner and is active, add a partner.
-            if (relation.getRelationshipType() == 2 && relation.getIsActive() == 1) {
-                personRelation.addPartner(new PersonIdentityLite(relation.getPerson2Id()));
-            }
-            //If relation is partner and is not active, add as a previous partner.
-            else if (relation.getRelationshipType() == 2 && relation.getIsActive() == 0) {
-                personRelation.addPreviousPartner(new PersonIdentityLite(relation.getPerson2Id()));
-            }
-            //If relation is parent-child, add persons 1 as parent.
-            else if (relation.getRelationshipType() == 1 && relation.getPerson2Id() == personId) {
-                personRelation.addParent(new PersonIdentityLite(relation.getPerson1Id()));
-            } else //If relation is parent-child, add person 2 as child.
-            {
-                personRelation.addChild(new PersonIdentityLite(relation.getPerson2Id()));
-            }
+            addRelation(personRelation, relation);
         }
         return personRelation;
     }
 
+    /**
+     * Find all the relations for the given persons, with a single round trip for every chunk of persons.
+     * A relation between 2 of the given persons is added to both of them.
+     *
+     * @param personIds
+     * @return relations by person id for every given person, null when they could not be read.
+     */
+    @Override
+    public Map<Integer, PersonRelations> findPersonsRelations(Set<Integer> personIds) {
+        var personRelationsInfo = reportRelationsInfoDAO.getPersonsRelations(personIds);
+        if (personRelationsInfo == null)
+            return null;
+
+        var personsRelations = new HashMap<Integer, PersonRelations>();
+        for (var personId : personIds) {
+            personsRelations.put(personId, new PersonRelations(personId));
+        }
+        for (var relation : personRelationsInfo) {
+            //Relation read for person 1, as partner, previous partner or child.
+            if (personsRelations.containsKey(relation.getPerson1Id()))
+                addRelation(personsRelations.get(relation.getPerson1Id()), relation);
+
+            //Relation read for person 2, as parent.
+            if (relation.getRelationshipType() == 1 && personsRelations.containsKey(relation.getPerson2Id()))
+                addRelation(personsRelations.get(relation.getPerson2Id()), relation);
+        }
+        return personsRelations;
+    }
+
+    /**
+     * Find the descendants or ancestors of a person up to the given generations, computed inside the external source.
+     *
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @return generation of every relative by person id, null when they could not be read.
+     */
+    @Override
+    public Map<Integer, Integer> findRelatives(int personId, int generations, boolean isDescendants) {
+        return reportRelationsInfoDAO.getRelatives(personId, generations, isDescendants);
+    }
+
+    /**
+     * Adds a relation read from the external source to the relations of the person.
+     *
+     * @param personRelation
+     * @param relation
+     */
+    private void addRelation(PersonRelations personRelation, PersonRelationshipLite relation) {
+        //If relation is partner and is active, add a partner.
+        if (relation.getRelationshipType() == 2 && relation.getIsActive() == 1) {
+            personRelation.addPartner(new PersonIdentityLite(relation.getPerson2Id()));
+        }
+        //If relation is partner and is not active, add as a previous partner.
+        else if (relation.getRelationshipType() == 2 && relation.getIsActive() == 0) {
+            personRelation.addPreviousPartner(new PersonIdentityLite(relation.getPerson2Id()));
+        }
+        //If relation is parent-child, add persons 1 as parent.
+        else if (relation.getRelationshipType() == 1 && relation.getPerson2Id() == personRelation.getPersonId()) {
+            personRelation.addParent(new PersonIdentityLite(relation.getPerson1Id()));
+        } else //If relation is parent-child, add person 2 as child.
+        {
+            personRelation.addChild(new PersonIdentityLite(relation.getPerson2Id()));
+        }
+    }
+
     /**
      * Find person information for given person id's.
      *
@@ -197,11 +285,57 @@ public class Report implements IReport {
      */
     @Override
     public Set<PersonIdentityInternal> findPersons(Set<Integer> personIds) {
-        Set<PersonIdentityInternal> persons = new HashSet<>();
-        for (var id : personIds) {
-            persons.add(reportRelationsInfoDAO.getPersonById(id));
+        var persons = reportRelationsInfoDAO.getPersonsByIds(personIds);
+        return persons == null ? new HashSet<>() : persons;
+    }
+
+    /**
+     * Reads all the relations between persons, passing every relation to the consumer as soon as it is read.
+     *
+     * @param consumer
+     * @return number of relations read.
+     * @throws IOException
+     */
+    @Override
+    public int streamAllRelations(Consumer<PersonRelationshipLite> consumer) throws IOException {
+        try {
+            return reportRelationsInfoDAO.streamAllRelations(consumer);
+        } catch (SQLException exception) {
+            throw new IOException("Unable to connect to database.");
+        }
+    }
+
+    /**
+     * Gets the id of the last change made to the relations between persons.
+     *
+     * @return last change id.
+     * @throws IOException
+     */
+    @Override
+    public long getLastRelationChange() throws IOException {
+        try {
+            return reportRelationsInfoDAO.getLastRelationChange();
+        } catch (SQLException exception) {
+            throw new IOException("Unable to connect to database.");
+        }
+    }
+
+    /**
+     * Reads the changes made to the relations between persons after the given change, in the order they were made.
+     *
+     * @param afterChangeId
+     * @param consumer
+     * @return id of the last change read.
+     * @throws IOException
+     */
+    @Override
+    public long streamRelationChanges(long afterChangeId, Consumer<PersonRelationshipLite> consumer)
+            throws IOException {
+        try {
+            return reportRelationsInfoDAO.streamRelationChanges(afterChangeId, consumer);
+        } catch (SQLException exception) {
+            throw new IOException("Unable to connect to database.");
         }
-        return persons;
     }
 
     /**
@@ -225,9 +359,7 @@ public class Report implements IReport {
 
             files = reportMediaInfoDAO.findMediaByTag(tag, startD, endD);
 
-            for (var file : files) {
-                reportMediaInfoDAO.fillAttributes(file);
-            }
+            reportMediaInfoDAO.fillAttributes(files);
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to the database.");
         }
@@ -254,9 +386,7 @@ public class Report implements IReport {
 
             files = reportMediaInfoDAO.findMediaByLocation(location, startD, endD);
 
-            for (var file : files) {
-                reportMediaInfoDAO.fillAttributes(file);
-            }
+            reportMediaInfoDAO.fillAttributes(files);
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to database.");
         }
@@ -277,28 +407,20 @@ public class Report implements IReport {
     @Override
     public Set<FileIdentifierInternal> findIndividualsMedia(Set<PersonIdentityInternal> people,
                                                             String startDate, String endDate) throws IOException, ParseException {
-        Set<FileIdentifierInternal> files = new TreeSet<>(
-                Comparator.comparing(
-                        FileIdentifierInternal::getDateOfPicture, Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(
-                        FileIdentifierInternal::getMediaName, Comparator.naturalOrder()
-                )
-        );
-
+        Set<FileIdentifierInternal> files;
         try {
             var startD = (startDate == null || startDate.isBlank()) ? null : convertStringDateToDateFormat(startDate);
             var endD = (endDate == null || endDate.isBlank()) ? null : convertStringDateToDateFormat(endDate);
 
-            try {
-                for (var person : people) {
-                    files.addAll(reportMediaInfoDAO.findIndividualsMedia(person.getPersonId(), startD, endD));
-                }
-            } catch (Exception ex) {
-                System.out.println(ex.getMessage());
+            Set<Integer> personIds = new HashSet<>();
+            for (var person : people) {
+                personIds.add(person.getPersonId());
             }
 
-            for (var file : files) {
-                reportMediaInfoDAO.fillAttributes(file);
-            }
+            //Files are distinct and ordered by date and then name by the external source.
+            files = new LinkedHashSet<>(reportMediaInfoDAO.findPersonsMedia(personIds, startD, endD));
+
+            reportMediaInfoDAO.fillAttributes(files);
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to database.");
         }
@@ -316,24 +438,15 @@ public class Report implements IReport {
     @Override
     public List<FileIdentifierInternal> findBiologicalFamilyMedia(Set<Integer> persons) throws IOException {
 
-        Set<FileIdentifierInternal> files = new TreeSet<>(
-                Comparator.comparing(
-                        FileIdentifierInternal::getDateOfPicture, Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(
-                        FileIdentifierInternal::getMediaName, Comparator.naturalOrder()
-                )
-        );
-
+        List<FileIdentifierInternal> files;
         try {
-            for (var personId : persons) {
-                files.addAll(reportMediaInfoDAO.findIndividualsMedia(personId, null, null));
-            }
-            for (var file : files) {
-                reportMediaInfoDAO.fillAttributes(file);
-            }
+            //Files are distinct and ordered by date and then name by the external source.
+            files = reportMediaInfoDAO.findPersonsMedia(persons, null, null);
+            reportMediaInfoDAO.fillAttributes(files);
         } catch (SQLException exception) {
             throw new IOException("Unable to connect to database.");
         }
-        return files.stream().toList();
+        return files;
     }
 
     /**
@@ -0,0 +1,93 @@
+package com.findyourfamily.app.common.config;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Type for reading the application settings stored inside config.properties file.
+ * Settings are read only 1 time and reused afterwards.
+ */
+public class AppConfiguration {
+
+    //Constant for storing name of the configuration file.
+    private static final String fileName = "config.properties";
+
+    //Stores the settings loaded from the configuration file.
+    private static Properties properties = null;
+
+    private AppConfiguration() {
+    }
+
+    /**
+     * Gets the value of a setting as string.
+     *
+     * @param name
+     * @param defaultValue
+     * @return value of the setting or default value when setting is not present.
+     */
+    public static String getString(String name, String defaultValue) {
+        var value = getProperties().getProperty(name);
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * Gets the value of a setting as integer.
+     *
+     * @param name
+     * @param defaultValue
+     * @return value of the setting or default value when setting is not present or not a number.
+     */
+    public static int getInt(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException exception) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the value of a setting as long.
+     *
+     * @param name
+     * @param defaultValue
+     * @return value of the setting or default value when setting is not present or not a number.
+     */
+    public static long getLong(String name, long defaultValue) {
+        try {
+            return Long.parseLong(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException exception) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the value of a setting as boolean.
+     *
+     * @param name
+     * @param defaultValue
+     * @return value of the setting or default value when setting is not present.
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Loads the settings from the configuration file. Creates the settings only 1 time and reuse it.
+     *
+     * @return loaded settings, empty when file could not be read.
+     */
+    private static synchronized Properties getProperties() {
+        if (properties == null) {
+            var loadedProperties = new Properties();
+            try (InputStream inputStream = new FileInputStream(fileName)) {
+                loadedProperties.load(inputStream);
+            } catch (IOException exception) {
+                System.out.println("Error while reading configuration: " + exception.getMessage());
+            }
+            properties = loadedProperties;
+        }
+        return properties;
+    }
+}
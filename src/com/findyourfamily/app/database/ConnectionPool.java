@@ -0,0 +1,355 @@
+package com.findyourfamily.app.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of database connections. Connections handed out by the pool return themselves
+ * to the pool when closed, so callers borrow a connection for a single operation and close it
+ * with try-with-resources.
+ */
+public class ConnectionPool {
+
+    //Credentials used for creating new physical connections.
+    private final String url;
+    private final String user;
+    private final String password;
+
+    //Limits of the pool.
+    private final int minSize;
+    private final int maxSize;
+
+    //Time to wait for a free connection before giving up.
+    private final long borrowTimeoutMillis;
+
+    //Time after which an idle connection above the minimum size is closed.
+    private final long idleTimeoutMillis;
+
+    //Time after which a borrowed connection is reported as leaked, 0 disables the detection.
+    private final long leakDetectionMillis;
+
+    //Seconds to wait for a connection to answer the validation on borrow.
+    private final int validationTimeoutSeconds;
+
+    //Number of statements cached for every connection.
+    private final int statementCacheSize;
+
+    //Limits the number of connections borrowed at the same time.
+    private final Semaphore permits;
+
+    //Connections ready to be borrowed, most recently used first.
+    private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+
+    //Connections currently borrowed from the pool.
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+
+    //Number of physical connections opened by the pool.
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    //Background task evicting idle connections and detecting leaks.
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean isClosed = false;
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakDetectionMillis,
+                          int validationTimeoutSeconds, int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("Invalid pool size.");
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis,
+                leakDetectionMillis > 0 ? leakDetectionMillis : idleTimeoutMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool. Waits for the borrow timeout when all the connections are in use.
+     * The connection is validated before it is handed out.
+     *
+     * @return connection which returns to the pool when closed.
+     * @throws SQLException
+     */
+    public Connection borrow() throws SQLException {
+        if (isClosed)
+            throw new SQLException("Connection pool has been closed.");
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+                throw new SQLTransientConnectionException("Timed out while waiting for a database connection.");
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection.");
+        }
+
+        try {
+            //Reuse an idle connection if it is still alive, otherwise open a new one.
+            PooledConnection pooledConnection;
+            while ((pooledConnection = idleConnections.pollFirst()) != null) {
+                if (pooledConnection.isValid())
+                    break;
+                pooledConnection.closePhysical();
+            }
+            if (pooledConnection == null)
+                pooledConnection = create();
+
+            pooledConnection.markBorrowed();
+            borrowedConnections.add(pooledConnection);
+            return pooledConnection.getProxy();
+        } catch (SQLException | RuntimeException exception) {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * Gets the number of connections opened by the pool.
+     *
+     * @return total connections.
+     */
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * Gets the number of connections currently borrowed.
+     *
+     * @return borrowed connections.
+     */
+    public int getBorrowedConnections() {
+        return borrowedConnections.size();
+    }
+
+    /**
+     * Closes all the idle connections and stops the pool. Borrowed connections are closed once they are returned.
+     */
+    public void close() {
+        isClosed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null) {
+            pooledConnection.closePhysical();
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. Any open transaction is rolled back so that it does not leak
+     * into the next borrower.
+     *
+     * @param pooledConnection
+     */
+    private void release(PooledConnection pooledConnection) {
+        borrowedConnections.remove(pooledConnection);
+        try {
+            if (pooledConnection.reset() && !isClosed && totalConnections.get() <= maxSize) {
+                pooledConnection.lastUsedMillis = System.currentTimeMillis();
+                idleConnections.offerFirst(pooledConnection);
+            } else {
+                pooledConnection.closePhysical();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens a new physical connection.
+     *
+     * @return pooled connection wrapping the physical connection.
+     * @throws SQLException
+     */
+    private PooledConnection create() throws SQLException {
+        var connection = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        return new PooledConnection(connection);
+    }
+
+    /**
+     * Closes connections idle for longer than the idle timeout, keeps the minimum number of connections open
+     * and reports connections borrowed for longer than the leak detection threshold.
+     */
+    private void houseKeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            //Oldest connections are at the end of the deque.
+            for (var pooledConnection : idleConnections.toArray(new PooledConnection[0])) {
+                if (totalConnections.get() <= minSize)
+                    break;
+                if (now - pooledConnection.lastUsedMillis > idleTimeoutMillis
+                        && idleConnections.remove(pooledConnection))
+                    pooledConnection.closePhysical();
+            }
+
+            while (!isClosed && totalConnections.get() < minSize)
+                idleConnections.offerLast(create());
+
+            if (leakDetectionMillis > 0) {
+                for (var pooledConnection : borrowedConnections) {
+                    if (!pooledConnection.isLeakReported && now - pooledConnection.borrowedAtMillis > leakDetectionMillis) {
+                        pooledConnection.isLeakReported = true;
+                        System.out.println("Possible connection leak, connection borrowed for more than "
+                                + leakDetectionMillis + " ms.");
+                        pooledConnection.borrowedBy.printStackTrace(System.out);
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException exception) {
+            System.out.println("Error while maintaining connection pool: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Physical connection and its state inside the pool.
+     */
+    private class PooledConnection {
+
+        //Stores the physical connection with the database.
+        private final Connection connection;
+
+        //Statements prepared on the physical connection.
+        private final StatementCache statementCache;
+
+        private volatile long lastUsedMillis = System.currentTimeMillis();
+        private volatile long borrowedAtMillis;
+        private volatile boolean isLeakReported;
+        private volatile Throwable borrowedBy;
+
+        //Proxy handed out to the current borrower.
+        private Connection proxy;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statementCache = new StatementCache(connection, statementCacheSize);
+        }
+
+        private void markBorrowed() {
+            borrowedAtMillis = System.currentTimeMillis();
+            isLeakReported = false;
+            borrowedBy = leakDetectionMillis > 0 ? new Throwable("Connection borrowed here") : null;
+
+            //A new proxy for every borrow, so that a proxy kept after closing cannot reach the next borrower.
+            proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+
+        private Connection getProxy() {
+            return proxy;
+        }
+
+        private boolean isValid() {
+            try {
+                return connection.isValid(validationTimeoutSeconds);
+            } catch (SQLException exception) {
+                return false;
+            }
+        }
+
+        /**
+         * Rolls back any uncommitted work and restores auto commit.
+         *
+         * @return true if the connection can be reused.
+         */
+        private boolean reset() {
+            statementCache.releaseAll();
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException exception) {
+                return false;
+            }
+        }
+
+        private void closePhysical() {
+            totalConnections.decrementAndGet();
+            statementCache.closeAll();
+            try {
+                connection.close();
+            } catch (SQLException exception) {
+                System.out.println("Error while closing connection: " + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handler behind the connection handed out for a single borrow. Closing it returns the
+     * physical connection to the pool.
+     */
+    private class Lease implements InvocationHandler {
+
+        private final PooledConnection pooledConnection;
+
+        private volatile boolean isReturned = false;
+
+        private Lease(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    //Returns the connection to the pool instead of closing it, only once per borrow.
+                    if (!isReturned) {
+                        isReturned = true;
+                        release(pooledConnection);
+                    }
+                    return null;
+                case "isClosed":
+                    return isReturned || pooledConnection.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooledConnection.connection;
+                default:
+                    if (isReturned)
+                        throw new SQLException("Connection has already been returned to the pool.");
+
+                    //Statements with only sql text are served from the statement cache.
+                    if (args != null && args.length == 1 && method.getName().equals("prepareCall"))
+                        return pooledConnection.statementCache.prepareCall((String) args[0], (Connection) proxy);
+                    if (args != null && args.length == 1 && method.getName().equals("prepareStatement"))
+                        return pooledConnection.statementCache.prepareStatement((String) args[0], (Connection) proxy);
+                    if (args != null && args.length == 2 && method.getName().equals("prepareStatement")
+                            && method.getParameterTypes()[1] == int.class)
+                        return pooledConnection.statementCache.prepareStatement((String) args[0], (Integer) args[1],
+                                (Connection) proxy);
+                    try {
+                        return method.invoke(pooledConnection.connection, args);
+                    } catch (InvocationTargetException exception) {
+                        throw exception.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -1,23 +1,18 @@
 package com.findyourfamily.app.database;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import com.findyourfamily.app.common.config.AppConfiguration;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.Properties;
+import java.util.List;
 
 /**
  * Singleton type for getting and closing database connection.
  */
 public class DatabaseUtility {
-    //Stores the connection with the database
-    private static Connection connection = null;
-
-    //Constant for storing url for the connection.
-    private static final String fileName = "config.properties";
+    //Stores the pool of connections with the database
+    private static ConnectionPool connectionPool = null;
 
     //Constant for storing url property for the connection.
     private static final String urlProperty = "url";
@@ -28,56 +23,120 @@ public class DatabaseUtility {
     //Constant for storing password property for the connection.
     private static final String passwordProperty = "password";
 
+    //Constants for storing connection pool properties and their default values.
+    private static final String minPoolSizeProperty = "pool.minSize";
+    private static final String maxPoolSizeProperty = "pool.maxSize";
+    private static final String borrowTimeoutProperty = "pool.borrowTimeoutMillis";
+    private static final String idleTimeoutProperty = "pool.idleTimeoutMillis";
+    private static final String leakDetectionProperty = "pool.leakDetectionMillis";
+    private static final String validationTimeoutProperty = "pool.validationTimeoutSeconds";
+
+    //Constant for storing number of statements cached for every connection.
+    private static final String statementCacheSizeProperty = "statementCache.size";
+
+    //Constant for storing number of rows sent to the database in a single round trip.
+    private static final String batchChunkSizeProperty = "batch.chunkSize";
+
     private DatabaseUtility() {
     }
 
     /**
-     * Gets the connection for a database. Creates the connection only 1 time and reuse it.
+     * Borrows a connection from the connection pool. Creates the pool only 1 time and reuse it.
+     * The connection must be closed after the operation to return it to the pool.
      *
      * @return database connection
+     * @throws SQLException
      */
-    public static Connection getConnection() {
-        //Used for getting credentials from config.properties file.
-        var properties = new Properties();
-
-        InputStream inputStream;
-        try {
-
-            //Loads the jdbc driver
-            var driver = Class.forName("com.mysql.cj.jdbc.Driver");
-
-            //Creates a new connection when there is no existing connection
-            if (connection == null) {
-                inputStream = new FileInputStream(fileName);
-                properties.load(inputStream);
-                connection = DriverManager.getConnection(properties.getProperty(urlProperty),
-                        properties.getProperty(userProperty), properties.getProperty(passwordProperty));
-            }
+    public static Connection getConnection() throws SQLException {
+        return getConnectionPool().borrow();
+    }
 
-        } catch (ClassNotFoundException | SQLException | FileNotFoundException exception) {
-            System.out.println("Error while creating connection: " + exception.getMessage());
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Closes the connection pool, and all the connections with the database.
+     *
+     * @return true if connection was closed.
+     */
+    public static synchronized boolean closeConnection() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
         }
+        return true;
+    }
 
-        return connection;
+    /**
+     * Gets the number of rows to be sent to the database in a single round trip by batched operations.
+     *
+     * @return chunk size, at least 1.
+     */
+    public static int getBatchChunkSize() {
+        return Math.max(1, AppConfiguration.getInt(batchChunkSizeProperty, 100));
     }
 
     /**
-     * Closes the database connection.
+     * Repeats a group of placeholders separated by commas, e.g. "(?, ?)" 2 times gives "(?, ?), (?, ?)".
      *
-     * @return true if connection was closed.
+     * @param group
+     * @param count
+     * @return repeated placeholders to be appended to a query.
+     */
+    public static String repeatPlaceholders(String group, int count) {
+        var placeholders = new StringBuilder(count * (group.length() + 2));
+        for (int index = 0; index < count; index++) {
+            if (index > 0)
+                placeholders.append(", ");
+            placeholders.append(group);
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * Sets a chunk of ids as the parameters of an IN query having chunk size placeholders, starting from the given
+     * parameter index. The last chunk is padded with its last id, so that the same statement serves every chunk.
+     *
+     * @param ps
+     * @param parameterIndex
+     * @param ids
+     * @param start
+     * @param chunkSize
+     * @throws SQLException
      */
-    public static boolean closeConnection() {
-        if (connection != null) {
+    public static void setIdsChunk(PreparedStatement ps, int parameterIndex, List<Integer> ids, int start,
+                                   int chunkSize) throws SQLException {
+        var end = Math.min(start + chunkSize, ids.size());
+        for (int index = 0; index < chunkSize; index++) {
+            ps.setInt(parameterIndex + index, ids.get(Math.min(start + index, end - 1)));
+        }
+    }
+
+    /**
+     * Gets the connection pool, creates it when it is used for the first time.
+     *
+     * @return connection pool
+     * @throws SQLException
+     */
+    private static synchronized ConnectionPool getConnectionPool() throws SQLException {
+        if (connectionPool == null) {
             try {
-                connection.close();
-            } catch (SQLException exception) {
-                System.out.println("Error while closing connection: " + exception.getMessage());
-                return false;
+                //Loads the jdbc driver
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            } catch (ClassNotFoundException exception) {
+                System.out.println("Error while creating connection: " + exception.getMessage());
+                throw new SQLException("Database driver not found.", exception);
             }
+
+            connectionPool = new ConnectionPool(AppConfiguration.getString(urlProperty, null),
+                    AppConfiguration.getString(userProperty, null),
+                    AppConfiguration.getString(passwordProperty, null),
+                    AppConfiguration.getInt(minPoolSizeProperty, 2),
+                    AppConfiguration.getInt(maxPoolSizeProperty, 10),
+                    AppConfiguration.getLong(borrowTimeoutProperty, 30000),
+                    AppConfiguration.getLong(idleTimeoutProperty, 600000),
+                    AppConfiguration.getLong(leakDetectionProperty, 60000),
+                    AppConfiguration.getInt(validationTimeoutProperty, 5),
+                    AppConfiguration.getInt(statementCacheSizeProperty, 50));
         }
-        return true;
+        return connectionPool;
     }
 
 }
@@ -0,0 +1,230 @@
+package com.findyourfamily.app.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide cache of the ids of the rows inside the locations, occupations and gender tables.
+ * The cache is preloaded from the external source 1 time, values not present in the cache are resolved
+ * inside the caller's transaction and published to the cache only after the transaction is committed.
+ */
+public class DimensionCache {
+
+    //Constants for storing database stored procedures calls.
+    private final String GETGENDERSQUERY = "{CALL get_genders()}";
+    private final String GETOCCUPATIONSQUERY = "{CALL get_occupations()}";
+    private final String GETLOCATIONSQUERY = "{CALL get_locations()}";
+    private final String SAVEGENDERQUERY = "{CALL save_gender(?, ?)}";
+    private final String SAVEOCCUPATIONQUERY = "{CALL save_occupation(?, ?)}";
+    private final String SAVELOCATIONQUERY = "{CALL save_location(?, ?, ?, ?, ?)}";
+
+    //Stores the single instance of the cache.
+    private static DimensionCache instance = null;
+
+    //Ids of genders and occupations by their name.
+    private final Map<String, Integer> genders = new ConcurrentHashMap<>();
+    private final Map<String, Integer> occupations = new ConcurrentHashMap<>();
+
+    //Locations by their location name.
+    private final Map<String, LocationEntry> locations = new ConcurrentHashMap<>();
+
+    private volatile boolean isLoaded = false;
+
+    private DimensionCache() {
+    }
+
+    /**
+     * Gets the cache, creates it when used for the first time.
+     *
+     * @return dimension cache.
+     */
+    public static synchronized DimensionCache getInstance() {
+        if (instance == null)
+            instance = new DimensionCache();
+        return instance;
+    }
+
+    /**
+     * Loads all the genders, occupations and locations from the external source into the cache.
+     *
+     * @throws SQLException
+     */
+    public synchronized void preload() throws SQLException {
+        try (var connection = DatabaseUtility.getConnection()) {
+            try (var cs = connection.prepareCall(GETGENDERSQUERY)) {
+                var result = cs.executeQuery();
+                while (result.next()) {
+                    genders.put(result.getString(2), result.getInt(1));
+                }
+            }
+            try (var cs = connection.prepareCall(GETOCCUPATIONSQUERY)) {
+                var result = cs.executeQuery();
+                while (result.next()) {
+                    occupations.put(result.getString(2), result.getInt(1));
+                }
+            }
+            try (var cs = connection.prepareCall(GETLOCATIONSQUERY)) {
+                var result = cs.executeQuery();
+                while (result.next()) {
+                    locations.put(result.getString(2), new LocationEntry(result.getInt(1),
+                            result.getString(3), result.getString(4), result.getString(5)));
+                }
+            }
+        }
+        isLoaded = true;
+    }
+
+    /**
+     * Starts resolving the ids for a single transaction on the given connection.
+     *
+     * @param connection
+     * @return resolution to be published once the transaction is committed.
+     * @throws SQLException
+     */
+    public Resolution startResolution(Connection connection) throws SQLException {
+        if (!isLoaded)
+            preload();
+        return new Resolution(connection);
+    }
+
+    /**
+     * Gets the number of genders, occupations and locations inside the cache.
+     *
+     * @return size of the cache.
+     */
+    public int getSize() {
+        return genders.size() + occupations.size() + locations.size();
+    }
+
+    /**
+     * Location row with the values stored against it.
+     */
+    private static class LocationEntry {
+        private final int locationId;
+        private final String city;
+        private final String province;
+        private final String country;
+
+        private LocationEntry(int locationId, String city, String province, String country) {
+            this.locationId = locationId;
+            this.city = city;
+            this.province = province;
+            this.country = country;
+        }
+
+        private boolean isSame(String city, String province, String country) {
+            return Objects.equals(this.city, city) && Objects.equals(this.province, province)
+                    && Objects.equals(this.country, country);
+        }
+    }
+
+    /**
+     * Resolves ids inside a single transaction. Ids created or updated inside the transaction are kept aside
+     * and published to the cache by commit, so that a rolled back transaction never leaves wrong ids in the cache.
+     */
+    public class Resolution {
+
+        private final Connection connection;
+
+        //Values resolved inside the transaction.
+        private final Map<String, Integer> newGenders = new HashMap<>();
+        private final Map<String, Integer> newOccupations = new HashMap<>();
+        private final Map<String, LocationEntry> newLocations = new HashMap<>();
+
+        private Resolution(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Gets the id of the gender, creates it when it does not exist.
+         *
+         * @param genderName
+         * @return id of the gender, null when no gender is passed.
+         * @throws SQLException
+         */
+        public Integer resolveGender(String genderName) throws SQLException {
+            if (genderName == null)
+                return null;
+            var id = newGenders.containsKey(genderName) ? newGenders.get(genderName) : genders.get(genderName);
+            if (id == null) {
+                id = saveName(SAVEGENDERQUERY, genderName);
+                newGenders.put(genderName, id);
+            }
+            return id;
+        }
+
+        /**
+         * Gets the id of the occupation, creates it when it does not exist.
+         *
+         * @param occupationName
+         * @return id of the occupation, null when no occupation is passed.
+         * @throws SQLException
+         */
+        public Integer resolveOccupation(String occupationName) throws SQLException {
+            if (occupationName == null)
+                return null;
+            var id = newOccupations.containsKey(occupationName) ? newOccupations.get(occupationName)
+                    : occupations.get(occupationName);
+            if (id == null) {
+                id = saveName(SAVEOCCUPATIONQUERY, occupationName);
+                newOccupations.put(occupationName, id);
+            }
+            return id;
+        }
+
+        /**
+         * Gets the id of the location with the given name. An existing location gets its city, province and
+         * country updated when they differ, a location which does not exist is created.
+         *
+         * @param locationName
+         * @param city
+         * @param province
+         * @param country
+         * @return id of the location, null when no location name is passed.
+         * @throws SQLException
+         */
+        public Integer resolveLocation(String locationName, String city, String province, String country) throws SQLException {
+            if (locationName == null)
+                return null;
+            var entry = newLocations.containsKey(locationName) ? newLocations.get(locationName)
+                    : locations.get(locationName);
+            if (entry != null && entry.isSame(city, province, country))
+                return entry.locationId;
+
+            try (var cs = connection.prepareCall(SAVELOCATIONQUERY)) {
+                cs.setString(1, locationName);
+                cs.setString(2, city);
+                cs.setString(3, province);
+                cs.setString(4, country);
+                cs.registerOutParameter(5, Types.INTEGER);
+                cs.executeQuery();
+                entry = new LocationEntry(cs.getInt(5), city, province, country);
+            }
+            newLocations.put(locationName, entry);
+            return entry.locationId;
+        }
+
+        /**
+         * Publishes the ids resolved inside the transaction to the cache, called after the transaction is committed.
+         */
+        public void commit() {
+            genders.putAll(newGenders);
+            occupations.putAll(newOccupations);
+            locations.putAll(newLocations);
+        }
+
+        private int saveName(String query, String name) throws SQLException {
+            try (var cs = connection.prepareCall(query)) {
+                cs.setString(1, name);
+                cs.registerOutParameter(2, Types.INTEGER);
+                cs.executeQuery();
+                return cs.getInt(2);
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.findyourfamily.app.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of prepared and callable statements for a single physical connection, keyed by the sql text.
+ * Least recently used statements are closed when the cache is full. Closing a statement handed out by
+ * the cache returns it to the cache instead of closing it.
+ */
+public class StatementCache {
+
+    //Counters shared by the caches of all the connections.
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    //Stores the physical connection the statements belong to.
+    private final Connection connection;
+
+    //Maximum number of statements kept open, 0 disables the cache.
+    private final int maxSize;
+
+    //Statements by sql text, in least recently used order.
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize || eldest.getValue().isInUse)
+                    return false;
+                evictions.incrementAndGet();
+                eldest.getValue().closePhysical();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the number of times a statement was found inside the cache.
+     *
+     * @return hit count.
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of times a statement had to be prepared.
+     *
+     * @return miss count.
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of statements closed to make room for others.
+     *
+     * @return eviction count.
+     */
+    public static long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets a callable statement for the given sql, prepares it when it is not inside the cache.
+     *
+     * @param sql
+     * @param owner connection returned by the statement's getConnection.
+     * @return callable statement.
+     * @throws SQLException
+     */
+    public synchronized CallableStatement prepareCall(String sql, Connection owner) throws SQLException {
+        return (CallableStatement) get(sql, owner, true, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Gets a prepared statement for the given sql, prepares it when it is not inside the cache.
+     *
+     * @param sql
+     * @param owner connection returned by the statement's getConnection.
+     * @return prepared statement.
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement prepareStatement(String sql, Connection owner) throws SQLException {
+        return get(sql, owner, false, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Gets a prepared statement returning generated keys or not, prepares it when it is not inside the cache.
+     *
+     * @param sql
+     * @param autoGeneratedKeys
+     * @param owner connection returned by the statement's getConnection.
+     * @return prepared statement.
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement prepareStatement(String sql, int autoGeneratedKeys, Connection owner) throws SQLException {
+        return get(sql, owner, false, autoGeneratedKeys);
+    }
+
+    /**
+     * Marks all the statements as free, used when the connection is returned to the pool.
+     */
+    public synchronized void releaseAll() {
+        for (var statement : new ArrayList<>(statements.values())) {
+            statement.release();
+        }
+    }
+
+    /**
+     * Closes all the statements inside the cache.
+     */
+    public synchronized void closeAll() {
+        for (var statement : statements.values()) {
+            statement.closePhysical();
+        }
+        statements.clear();
+    }
+
+    private PreparedStatement get(String sql, Connection owner, boolean isCall, int autoGeneratedKeys) throws SQLException {
+        //Same key is never shared between the different types of statements.
+        var key = (isCall ? "C:" : (autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "G:" : "P:")) + sql;
+        var cachedStatement = statements.get(key);
+
+        //Statement is already used by the borrower, hand out a statement outside the cache.
+        if (cachedStatement != null && cachedStatement.isInUse) {
+            misses.incrementAndGet();
+            return prepare(sql, isCall, autoGeneratedKeys);
+        }
+
+        if (cachedStatement == null) {
+            misses.incrementAndGet();
+            var statement = prepare(sql, isCall, autoGeneratedKeys);
+            if (maxSize <= 0)
+                return statement;
+            cachedStatement = new CachedStatement(statement, isCall);
+            statements.put(key, cachedStatement);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return cachedStatement.checkOut(owner);
+    }
+
+    private PreparedStatement prepare(String sql, boolean isCall, int autoGeneratedKeys) throws SQLException {
+        return isCall ? connection.prepareCall(sql) : connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Statement stored inside the cache.
+     */
+    private class CachedStatement {
+
+        private final PreparedStatement statement;
+        private final boolean isCall;
+        private boolean isInUse;
+
+        //Increases on every check out, so that a proxy kept after closing cannot release a later check out.
+        private int checkOutCount;
+
+        private CachedStatement(PreparedStatement statement, boolean isCall) {
+            this.statement = statement;
+            this.isCall = isCall;
+        }
+
+        private PreparedStatement checkOut(Connection owner) {
+            isInUse = true;
+            var type = isCall ? CallableStatement.class : PreparedStatement.class;
+            return (PreparedStatement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new CheckOut(this, ++checkOutCount, owner));
+        }
+
+        /**
+         * Closes the open result set and clears parameters, so the statement is ready for the next use.
+         */
+        private void release() {
+            if (!isInUse)
+                return;
+            isInUse = false;
+            try {
+                var resultSet = statement.getResultSet();
+                if (resultSet != null)
+                    resultSet.close();
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException exception) {
+                //Statement can't be reused, drop it from the cache.
+                statements.values().remove(this);
+                closePhysical();
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException exception) {
+                System.out.println("Error while closing statement: " + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handler behind the statement handed out for a single check out.
+     */
+    private class CheckOut implements InvocationHandler {
+
+        private final CachedStatement cachedStatement;
+        private final int checkOutNumber;
+        private final Connection owner;
+
+        private CheckOut(CachedStatement cachedStatement, int checkOutNumber, Connection owner) {
+            this.cachedStatement = cachedStatement;
+            this.checkOutNumber = checkOutNumber;
+            this.owner = owner;
+        }
+
+        private boolean isCurrent() {
+            return cachedStatement.isInUse && cachedStatement.checkOutCount == checkOutNumber;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (StatementCache.this) {
+                        if (isCurrent())
+                            cachedStatement.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return !isCurrent() || cachedStatement.statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (!isCurrent())
+                        throw new SQLException("Statement has already been closed.");
+                    try {
+                        return method.invoke(cachedStatement.statement, args);
+                    } catch (InvocationTargetException exception) {
+                        throw exception.getCause();
+                    }
+            }
+        }
+    }
+}
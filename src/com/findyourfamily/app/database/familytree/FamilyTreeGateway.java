@@ -1,6 +1,7 @@
 package com.findyourfamily.app.database.familytree;
 
 import com.findyourfamily.app.database.DatabaseUtility;
+import com.findyourfamily.app.database.DimensionCache;
 import com.findyourfamily.app.models.domain.Attribute;
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
 import com.findyourfamily.app.models.shared.AttributeType;
@@ -9,6 +10,7 @@ import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -16,21 +18,19 @@ import java.util.List;
  */
 public class FamilyTreeGateway implements IFamilyTreeGateway {
 
-    //Field for storing the database connection.
-    private Connection _connection;
-
     //Constants for storing database stored procedures calls.
     private final String ADDPERSONQUERY = "{CALL add_person(?, ?)}";
-    private final String UPDATEPERSONQUERY = "{CALL update_person(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)}";
+    private final String ADDPERSONSQUERY = "INSERT INTO persons(personName) VALUES ";
+    private final String UPDATEPERSONQUERY = "{CALL update_personWithIds(?, ?, ?, ?, ?, ?, ?, ?)}";
     private final String ADDPERSONATTRIBUTETYPEQUERY = "{CALL add_personAttributeType(?, ?)}";
     private final String GETPERSONATTRIBUTETYPESQUERY = "{CALL get_personAttributeTypes()}";
     private final String ADDPERSONATTRIBUTEQUERY = "{CALL add_personAttribute(?, ?, ?)}";
     private final String ISPERSONEXISTSQUERY = "{CALL is_personExists(?, ?)}";
+    private final String GETPERSONIDSQUERY = "SELECT personId FROM persons";
     private final String ADDRELATIONSQUERY = "{CALL add_relations(?, ?, ?, ?)}";
-
-    public FamilyTreeGateway() {
-        _connection = DatabaseUtility.getConnection();
-    }
+    private final String ADDRELATIONSCHUNKQUERY = "CALL add_relations(?, ?, ?, @relation%d); ";
+    private final String ADDRELATIONSCHUNKRESULTQUERY = "@relation%d";
+    private final String REBUILDCLOSUREQUERY = "{CALL rebuild_personClosure()}";
 
     /**
      * Adds a person to the external source with a given name.
@@ -43,22 +43,70 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      */
     @Override
     public int addPerson(String name) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDPERSONQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ADDPERSONQUERY)) {
             cs.setString(1, name);
             cs.registerOutParameter(2, Types.INTEGER);
             cs.executeQuery();
 
             //Gets the person id from the out parameter.
-            var id = cs.getInt(2);
-            cs.close();
-
-            return id;
+            return cs.getInt(2);
         } catch (SQLException ex) {
             throw ex;
         }
     }
 
+    /**
+     * Adds persons to the external source with the given names inside a single transaction. Persons are
+     * inserted with a multi-row insert, one round trip for every chunk of names.
+     *
+     * @param names
+     * @return integer ids of the persons added, in the order of the names.
+     * @throws SQLException
+     */
+    @Override
+    public List<Integer> addPersons(List<String> names) throws SQLException {
+        var ids = new ArrayList<Integer>(names.size());
+        int chunkSize = DatabaseUtility.getBatchChunkSize();
+
+        try (var connection = DatabaseUtility.getConnection()) {
+            try {
+                //Starts a transaction for all the chunks.
+                connection.setAutoCommit(false);
+
+                for (int start = 0; start < names.size(); start += chunkSize) {
+                    var chunk = names.subList(start, Math.min(start + chunkSize, names.size()));
+
+                    try (var ps = connection.prepareStatement(ADDPERSONSQUERY
+                            + DatabaseUtility.repeatPlaceholders("(?)", chunk.size()), Statement.RETURN_GENERATED_KEYS)) {
+                        int parameterIndex = 1;
+                        for (var name : chunk) {
+                            ps.setString(parameterIndex++, name);
+                        }
+                        ps.executeUpdate();
+
+                        //Generated keys are returned in the order of the inserted rows.
+                        try (var keys = ps.getGeneratedKeys()) {
+                            while (keys.next()) {
+                                ids.add(keys.getInt(1));
+                            }
+                        }
+                    }
+                }
+
+                if (ids.size() != names.size())
+                    throw new SQLException("Ids were not generated for all the persons.");
+
+                //Commit once all the chunks went through.
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        return ids;
+    }
+
     /**
      * Adds a new attribute type inside the external source.
      *
@@ -68,15 +116,12 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      */
     @Override
     public int addAttribute(String attributeType) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDPERSONATTRIBUTETYPEQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ADDPERSONATTRIBUTETYPEQUERY)) {
             cs.setString(1, attributeType);
+            cs.registerOutParameter(2, Types.INTEGER);
             cs.executeQuery();
-            var id = cs.getInt(2);
-
-            cs.close();
-
-            return id;
+            return cs.getInt(2);
         } catch (SQLException ex) {
             throw ex;
         }
@@ -90,8 +135,8 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      */
     @Override
     public List<AttributeType> getAttributeTypes() {
-        try {
-            var cs = _connection.prepareCall(GETPERSONATTRIBUTETYPESQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(GETPERSONATTRIBUTETYPESQUERY)) {
             var result = cs.executeQuery();
 
             if (result == null)
@@ -105,8 +150,6 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
                 attributeTypes.add(attributeType);
             }
 
-            cs.close();
-
             return attributeTypes;
         } catch (SQLException ex) {
             return null;
@@ -123,19 +166,32 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      * @throws SQLException
      */
     public boolean savePersonAttribute(int id, int attributeId, String attributeValue) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDPERSONATTRIBUTEQUERY);
+        try (var connection = DatabaseUtility.getConnection()) {
+            return savePersonAttribute(connection, id, attributeId, attributeValue);
+        } catch (SQLException ex) {
+            throw ex;
+        }
+    }
+
+    /**
+     * Save or update person's attribute inside the external source using the given connection.
+     *
+     * @param connection
+     * @param id
+     * @param attributeId
+     * @param attributeValue
+     * @return true if the information is saved.
+     * @throws SQLException
+     */
+    private boolean savePersonAttribute(Connection connection, int id, int attributeId, String attributeValue) throws SQLException {
+        try (var cs = connection.prepareCall(ADDPERSONATTRIBUTEQUERY)) {
             cs.setInt(1, id);
             cs.setInt(2, attributeId);
             cs.setString(3, attributeValue);
 
             cs.executeQuery();
-            cs.close();
 
             return true;
-
-        } catch (SQLException ex) {
-            throw ex;
         }
     }
 
@@ -151,60 +207,72 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
     @Override
     public boolean savePersonAndPersonAttributes(PersonIdentityInternal personIdentity, List<Attribute> attributes,
                                                  boolean isPersonIdentityUpdateRequired) throws SQLException {
-        try {
-            //Starts a transaction
-            _connection.setAutoCommit(false);
-
-            if (isPersonIdentityUpdateRequired)
-                //Updates pre-defined attributes of a person.
-                updatePerson(personIdentity);
+        try (var connection = DatabaseUtility.getConnection()) {
+            DimensionCache.Resolution resolution = null;
+            try {
+                //Starts a transaction
+                connection.setAutoCommit(false);
+
+                if (isPersonIdentityUpdateRequired) {
+                    //Updates pre-defined attributes of a person.
+                    resolution = DimensionCache.getInstance().startResolution(connection);
+                    updatePerson(connection, resolution, personIdentity);
+                }
 
-            //Updates extra attributes of a person.
-            for (var attribute : attributes) {
-                savePersonAttribute(personIdentity.getPersonId(), attribute.getTypeId(), attribute.getTypeValue());
+                //Updates extra attributes of a person.
+                for (var attribute : attributes) {
+                    savePersonAttribute(connection, personIdentity.getPersonId(), attribute.getTypeId(), attribute.getTypeValue());
+                }
+                //Commit the transaction, if everything was committed.
+                connection.commit();
+
+                //Ids created inside the transaction are cached only once they are committed.
+                if (resolution != null)
+                    resolution.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
             }
-            //Commit the transaction, if everything was committed.
-            _connection.commit();
-        } catch (SQLException exception) {
-            _connection.rollback();
-            throw exception;
         }
         return true;
     }
 
     /**
-     * Update the person in the external source with the updated pre-defined attributes.
+     * Update the person in the external source with the updated pre-defined attributes. Gender, occupation and
+     * locations are resolved to their ids through the dimension cache, so that only the ids are sent with the update.
      *
+     * @param connection
+     * @param resolution
      * @param personIdentity
      * @return true if the person was successfully updated.
      * @throws SQLException
      */
-    private boolean updatePerson(PersonIdentityInternal personIdentity) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(UPDATEPERSONQUERY);
+    private boolean updatePerson(Connection connection, DimensionCache.Resolution resolution,
+                                 PersonIdentityInternal personIdentity) throws SQLException {
+        var locationOfBirth = personIdentity.getLocationOfBirth();
+        var locationOfDeath = personIdentity.getLocationOfDeath();
+        var genderId = resolution.resolveGender(personIdentity.getGender());
+        var locationOfBirthId = locationOfBirth == null ? null : resolution.resolveLocation(locationOfBirth.getLocationName(),
+                locationOfBirth.getCity(), locationOfBirth.getProvince(), locationOfBirth.getCountry());
+        var locationOfDeathId = locationOfDeath == null ? null : resolution.resolveLocation(locationOfDeath.getLocationName(),
+                locationOfDeath.getCity(), locationOfDeath.getProvince(), locationOfDeath.getCountry());
+        var occupationId = resolution.resolveOccupation(personIdentity.getOccupation());
+
+        try (var cs = connection.prepareCall(UPDATEPERSONQUERY)) {
             cs.setInt(1, personIdentity.getPersonId());
             cs.setString(2, personIdentity.getName());
-            cs.setString(3, personIdentity.getGender());
+            cs.setObject(3, genderId, Types.INTEGER);
             cs.setDate(4, personIdentity.getDateOfBirth() == null ? null : new Date(personIdentity.getDateOfBirth().getYear(),
                     personIdentity.getDateOfBirth().getMonth(), personIdentity.getDateOfBirth().getDate()));
-            cs.setString(5, personIdentity.getLocationOfBirth().getLocationName());
-            cs.setDate(6, personIdentity.getDateOfDeath() == null ? null : new Date(personIdentity.getDateOfBirth().getYear(),
-                    personIdentity.getDateOfBirth().getMonth(), personIdentity.getDateOfBirth().getDate()));
-            cs.setString(7, personIdentity.getLocationOfDeath().getLocationName());
-            cs.setString(8, personIdentity.getOccupation());
-            cs.setString(9, personIdentity.getLocationOfBirth().getCity());
-            cs.setString(10, personIdentity.getLocationOfBirth().getProvince());
-            cs.setString(11, personIdentity.getLocationOfBirth().getCountry());
-            cs.setString(12, personIdentity.getLocationOfDeath().getCity());
-            cs.setString(13, personIdentity.getLocationOfDeath().getProvince());
-            cs.setString(14, personIdentity.getLocationOfDeath().getCountry());
+            cs.setObject(5, locationOfBirthId, Types.INTEGER);
+            cs.setDate(6, personIdentity.getDateOfDeath() == null ? null : new Date(personIdentity.getDateOfDeath().getYear(),
+                    personIdentity.getDateOfDeath().getMonth(), personIdentity.getDateOfDeath().getDate()));
+            cs.setObject(7, locationOfDeathId, Types.INTEGER);
+            cs.setObject(8, occupationId, Types.INTEGER);
 
             cs.executeQuery();
-            cs.close();
 
             return true;
-        } catch (SQLException ex) {
-            throw ex;
         }
     }
 
@@ -217,13 +285,13 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      */
     @Override
     public boolean isPersonExists(int id) throws IOException {
-        try {
-            var cs = _connection.prepareCall(ISPERSONEXISTSQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ISPERSONEXISTSQUERY)) {
             cs.setInt(1, id);
             cs.registerOutParameter(2, Types.INTEGER);
+            cs.executeQuery();
 
             var result = cs.getInt(2);
-            cs.close();
 
             return result == 1 ? true : false;
 
@@ -232,6 +300,25 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
         }
     }
 
+    /**
+     * Gets the ids of all the persons in the external source.
+     *
+     * @return bitset with a bit set for every person id.
+     * @throws SQLException
+     */
+    @Override
+    public BitSet getPersonIds() throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETPERSONIDSQUERY);
+             var result = ps.executeQuery()) {
+            var ids = new BitSet();
+            while (result.next()) {
+                ids.set(result.getInt(1));
+            }
+            return ids;
+        }
+    }
+
     /**
      * Generic method for recording list of relationships that should exist between 2 persons. If any of them fails,
      * nothing gets saved.
@@ -242,35 +329,151 @@ public class FamilyTreeGateway implements IFamilyTreeGateway {
      */
     @Override
     public boolean recordRelationship(List<PersonRelationshipLite> personRelationshipLiteList) throws SQLException {
-        try {
-            //Starts a transaction for recording relationship.
-            _connection.setAutoCommit(false);
-
-            for (var personRelationshipLite : personRelationshipLiteList) {
-
-                var cs = _connection.prepareCall(ADDRELATIONSQUERY);
-                cs.setInt(1, personRelationshipLite.getPerson1Id());
-                cs.setInt(2, personRelationshipLite.getPerson2Id());
-                cs.setInt(3, personRelationshipLite.getRelationshipType());
-                cs.registerOutParameter(4, Types.INTEGER);
-                cs.executeQuery();
-
-                //Gets the person id from the out parameter.
-                var id = cs.getInt(4);
-                if (id == -1) {
-                    _connection.rollback();
-                    return false;
+        try (var connection = DatabaseUtility.getConnection()) {
+            try {
+                //Starts a transaction for recording relationship.
+                connection.setAutoCommit(false);
+
+                for (var personRelationshipLite : personRelationshipLiteList) {
+                    try (var cs = connection.prepareCall(ADDRELATIONSQUERY)) {
+                        cs.setInt(1, personRelationshipLite.getPerson1Id());
+                        cs.setInt(2, personRelationshipLite.getPerson2Id());
+                        cs.setInt(3, personRelationshipLite.getRelationshipType());
+                        cs.registerOutParameter(4, Types.INTEGER);
+                        cs.executeQuery();
+
+                        //Gets the person id from the out parameter.
+                        var id = cs.getInt(4);
+                        if (id == -1) {
+                            connection.rollback();
+                            return false;
+                        }
+                    }
                 }
-                cs.close();
-            }
 
-            //Commit if all the recording went through.
-            _connection.commit();
+                //Commit if all the recording went through.
+                connection.commit();
 
-        } catch (SQLException ex) {
-            _connection.rollback();
-            throw ex;
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
         }
         return true;
     }
+
+    /**
+     * Records many relationships inside a single transaction. Relationships are sent in chunks, every chunk
+     * calls add_relations for each of its relationships and reads back all of their results in 1 round trip,
+     * so the validation of add_relations is kept. A relationship rejected by add_relations does not stop
+     * the others from being recorded.
+     *
+     * @param personRelationshipLiteList
+     * @return outcome of every relationship in the given order, true if it was recorded.
+     * @throws SQLException
+     */
+    @Override
+    public List<Boolean> recordRelationships(List<PersonRelationshipLite> personRelationshipLiteList) throws SQLException {
+        var outcomes = new ArrayList<Boolean>(personRelationshipLiteList.size());
+        int chunkSize = DatabaseUtility.getBatchChunkSize();
+
+        try (var connection = DatabaseUtility.getConnection()) {
+            try {
+                //Starts a transaction for all the chunks.
+                connection.setAutoCommit(false);
+
+                for (int start = 0; start < personRelationshipLiteList.size(); start += chunkSize) {
+                    var chunk = personRelationshipLiteList.subList(start,
+                            Math.min(start + chunkSize, personRelationshipLiteList.size()));
+
+                    try (var ps = connection.prepareStatement(buildRecordRelationshipsQuery(chunk.size()))) {
+                        int parameterIndex = 1;
+                        for (var personRelationshipLite : chunk) {
+                            ps.setInt(parameterIndex++, personRelationshipLite.getPerson1Id());
+                            ps.setInt(parameterIndex++, personRelationshipLite.getPerson2Id());
+                            ps.setInt(parameterIndex++, personRelationshipLite.getRelationshipType());
+                        }
+                        outcomes.addAll(readRecordRelationshipsResult(ps, chunk.size()));
+                    }
+                }
+
+                //Commit once all the chunks went through.
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Rebuilds the closure of the parent-child relations from all the recorded relationships, used for data
+     * recorded before the closure was maintained.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void rebuildClosure() throws SQLException {
+        try (var connection = DatabaseUtility.getConnection()) {
+            try {
+                //Starts a transaction, so the closure is never seen half built.
+                connection.setAutoCommit(false);
+                try (var cs = connection.prepareCall(REBUILDCLOSUREQUERY)) {
+                    cs.execute();
+                }
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Builds the statements for recording a chunk of relationships, ending with a select of their results.
+     *
+     * @param count
+     * @return sql for the chunk.
+     */
+    private String buildRecordRelationshipsQuery(int count) {
+        var query = new StringBuilder();
+        var results = new StringBuilder();
+        for (int index = 0; index < count; index++) {
+            query.append(String.format(ADDRELATIONSCHUNKQUERY, index));
+            if (index > 0)
+                results.append(", ");
+            results.append(String.format(ADDRELATIONSCHUNKRESULTQUERY, index));
+        }
+        return query.append("SELECT ").append(results).toString();
+    }
+
+    /**
+     * Executes the statements of a chunk and reads the result of every relationship from the final select.
+     *
+     * @param ps
+     * @param count
+     * @return outcome of every relationship of the chunk.
+     * @throws SQLException
+     */
+    private List<Boolean> readRecordRelationshipsResult(PreparedStatement ps, int count) throws SQLException {
+        var outcomes = new ArrayList<Boolean>(count);
+        boolean isResultSet = ps.execute();
+
+        //Skips the results of the procedure calls until the select is reached.
+        while (isResultSet || ps.getUpdateCount() != -1) {
+            if (isResultSet) {
+                try (var result = ps.getResultSet()) {
+                    if (result.getMetaData().getColumnCount() == count && result.next()) {
+                        for (int index = 1; index <= count; index++) {
+                            outcomes.add(result.getInt(index) == 1);
+                        }
+                        return outcomes;
+                    }
+                }
+            }
+            isResultSet = ps.getMoreResults();
+        }
+        throw new SQLException("Results of the recorded relationships were not returned.");
+    }
 }
@@ -6,6 +6,7 @@ import com.findyourfamily.app.models.shared.AttributeType;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -24,6 +25,16 @@ public interface IRecordPersonInfoGateway {
      */
     int addPerson(String name) throws SQLException;
 
+    /**
+     * Adds persons to the external source with the given names inside a single transaction,
+     * sending the names in chunks.
+     *
+     * @param names
+     * @return integer ids of the persons added, in the order of the names.
+     * @throws SQLException
+     */
+    List<Integer> addPersons(List<String> names) throws SQLException;
+
     /**
      * Adds a new attribute type inside the external source.
      *
@@ -71,4 +82,12 @@ public interface IRecordPersonInfoGateway {
      * @throws IOException
      */
     boolean isPersonExists(int id) throws IOException;
+
+    /**
+     * Gets the ids of all the persons in the external source.
+     *
+     * @return bitset with a bit set for every person id.
+     * @throws SQLException
+     */
+    BitSet getPersonIds() throws SQLException;
 }
@@ -19,4 +19,21 @@ public interface IRecordPersonRelationshipGateway {
      * @throws SQLException
      */
     boolean recordRelationship(List<PersonRelationshipLite> personRelationshipLite) throws SQLException;
+
+    /**
+     * Records many relationships inside a single transaction, sending them in chunks. Each relationship is
+     * validated the same way as in recordRelationship, and a rejected relationship does not stop the others.
+     *
+     * @param personRelationshipLite
+     * @return outcome of every relationship in the given order, true if it was recorded.
+     * @throws SQLException
+     */
+    List<Boolean> recordRelationships(List<PersonRelationshipLite> personRelationshipLite) throws SQLException;
+
+    /**
+     * Rebuilds the closure of the parent-child relations from all the recorded relationships.
+     *
+     * @throws SQLException
+     */
+    void rebuildClosure() throws SQLException;
 }
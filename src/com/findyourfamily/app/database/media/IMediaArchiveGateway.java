@@ -6,6 +6,7 @@ import com.findyourfamily.app.models.shared.AttributeType;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -71,6 +72,14 @@ public interface IMediaArchiveGateway {
      */
     boolean isMediaExists(int id);
 
+    /**
+     * Gets the ids of all the media in the external source.
+     *
+     * @return bitset with a bit set for every media id.
+     * @throws SQLException
+     */
+    BitSet getMediaIds() throws SQLException;
+
     /**
      * Saver media predefined attributes and new attributes inside a transaction and fails when either of the
      * update fails.
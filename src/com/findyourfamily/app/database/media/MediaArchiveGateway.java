@@ -1,6 +1,7 @@
 package com.findyourfamily.app.database.media;
 
 import com.findyourfamily.app.database.DatabaseUtility;
+import com.findyourfamily.app.database.DimensionCache;
 import com.findyourfamily.app.models.domain.Attribute;
 import com.findyourfamily.app.models.domain.FileIdentifierInternal;
 import com.findyourfamily.app.models.shared.AttributeType;
@@ -11,25 +12,20 @@ import java.sql.Date;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class MediaArchiveGateway implements IMediaArchiveGateway {
 
-    //Field for storing the database connection.
-    private Connection _connection;
-
     //Constants for storing database stored procedures calls.
     private final String ADDMEDIAQUERY = "{CALL add_media(?, ?, ?)}";
-    private final String UPDATEMEDIAQUERY = "{CALL update_media(?, ?, ?, ?, ?, ?, ?, ?)}";
+    private final String UPDATEMEDIAQUERY = "{CALL update_mediaWithIds(?, ?, ?, ?, ?)}";
     private String GETMEDIAATTRIBUTETYPESQUERY = "{CALL get_mediaAttributeTypes()}";
     private String ADDMEDIAATTRIBUTEQUERY = "{CALL add_mediaAttribute(?, ?, ?)}";
     private String ADDMEDIAATTRIBUTETYPEQUERY = "CALL add_mediaAttributeType(?,?)";
-    private String ADDPERSONMEDIAQUERY = "CALL add_personmedia(?,?)";
+    private final String ADDPERSONSMEDIAQUERY = "INSERT INTO persons_media(personId, mediaId) VALUES ";
     private final String ISMEDIAEXISTSQUERY = "{CALL is_mediaExists(?, ?)}";
-
-    public MediaArchiveGateway() {
-        _connection = DatabaseUtility.getConnection();
-    }
+    private final String GETMEDIAIDSQUERY = "SELECT mediaId FROM media";
 
     /**
      * Adds media to the external source with given file location and file name.
@@ -43,17 +39,14 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public int addMedia(String fileLocation, String fileName) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDMEDIAQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ADDMEDIAQUERY)) {
             cs.setString(1, fileLocation);
             cs.setString(2, fileName);
             cs.registerOutParameter(3, Types.INTEGER);
             cs.executeQuery();
 
-            var id = cs.getInt(3);
-            cs.close();
-
-            return id;
+            return cs.getInt(3);
         } catch (SQLException ex) {
             System.out.println(ex.getMessage());
             throw ex;
@@ -61,27 +54,31 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
     }
 
     /**
-     * Updates media values inside the external source.
+     * Updates media values inside the external source. Location of the picture is resolved to its id through
+     * the dimension cache.
      *
+     * @param connection
+     * @param resolution
      * @param fileIdentifier
      * @return true if all the attributes were updated.
      * @throws SQLException
      */
-    private boolean updateMedia(FileIdentifierInternal fileIdentifier) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(UPDATEMEDIAQUERY);
+    private boolean updateMedia(Connection connection, DimensionCache.Resolution resolution,
+                                FileIdentifierInternal fileIdentifier) throws SQLException {
+        var locationOfPicture = fileIdentifier.getLocationOfPicture();
+        var locationOfPictureId = locationOfPicture == null ? null : resolution.resolveLocation(
+                locationOfPicture.getLocationName(), locationOfPicture.getCity(), locationOfPicture.getProvince(),
+                locationOfPicture.getCountry());
+
+        try (var cs = connection.prepareCall(UPDATEMEDIAQUERY)) {
             cs.setInt(1, fileIdentifier.getMediaId());
             cs.setString(2, fileIdentifier.getMediaName());
             cs.setString(3, fileIdentifier.getMediaLocation());
             cs.setDate(4, fileIdentifier.getDateOfPicture() == null ? null : new Date(fileIdentifier.getDateOfPicture().getYear(),
                     fileIdentifier.getDateOfPicture().getMonth(), fileIdentifier.getDateOfPicture().getDate()));
-            cs.setString(5, fileIdentifier.getLocationOfPicture().getLocationName());
-            cs.setString(6, fileIdentifier.getLocationOfPicture().getCity());
-            cs.setString(7, fileIdentifier.getLocationOfPicture().getProvince());
-            cs.setString(8, fileIdentifier.getLocationOfPicture().getCountry());
+            cs.setObject(5, locationOfPictureId, Types.INTEGER);
 
             cs.executeQuery();
-            cs.close();
 
             return true;
         } catch (SQLException ex) {
@@ -99,15 +96,12 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public int addAttribute(String attributeType) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDMEDIAATTRIBUTETYPEQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ADDMEDIAATTRIBUTETYPEQUERY)) {
             cs.setString(1, attributeType);
+            cs.registerOutParameter(2, Types.INTEGER);
             cs.executeQuery();
-            var id = cs.getInt(2);
-
-            cs.close();
-
-            return id;
+            return cs.getInt(2);
         } catch (SQLException ex) {
             System.out.println(ex.getMessage());
             throw ex;
@@ -122,8 +116,8 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public List<AttributeType> getAttributeTypes() {
-        try {
-            var cs = _connection.prepareCall(GETMEDIAATTRIBUTETYPESQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(GETMEDIAATTRIBUTETYPESQUERY)) {
             var result = cs.executeQuery();
             List<AttributeType> attributeTypes = new ArrayList<>();
 
@@ -136,8 +130,6 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
                 attributeTypes.add(attributeType);
             }
 
-            cs.close();
-
             return attributeTypes;
         } catch (SQLException ex) {
             return null;
@@ -155,25 +147,40 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public boolean saveMediaAttribute(int id, int attributeId, String attributeValue) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(ADDMEDIAATTRIBUTEQUERY);
+        try (var connection = DatabaseUtility.getConnection()) {
+            return saveMediaAttribute(connection, id, attributeId, attributeValue);
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            throw ex;
+        }
+    }
+
+    /**
+     * Save or update media attribute inside the external source using the given connection.
+     *
+     * @param connection
+     * @param id
+     * @param attributeId
+     * @param attributeValue
+     * @return true if the information is saved.
+     * @throws SQLException
+     */
+    private boolean saveMediaAttribute(Connection connection, int id, int attributeId, String attributeValue) throws SQLException {
+        try (var cs = connection.prepareCall(ADDMEDIAATTRIBUTEQUERY)) {
             cs.setInt(1, id);
             cs.setInt(2, attributeId);
             cs.setString(3, attributeValue);
 
             cs.executeQuery();
-            cs.close();
 
             return true;
-
-        } catch (SQLException ex) {
-            System.out.println(ex.getMessage());
-            throw ex;
         }
     }
 
     /**
-     * Adds a mapping between person ,and it's media file.
+     * Adds a mapping between person ,and it's media file. Mappings are inserted with a multi-row insert,
+     * one round trip for every chunk of persons, inside a single transaction. If any of the mapping fails,
+     * nothing gets saved.
      *
      * @param personIds
      * @param mediaId
@@ -181,19 +188,34 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public boolean addPersonMediaMapping(List<Integer> personIds, int mediaId) throws IOException {
-        try {
-            for (var personId : personIds) {
-                _connection.setAutoCommit(false);
-                var cs = _connection.prepareCall(ADDPERSONMEDIAQUERY);
-                cs.setInt(1, personId);
-                cs.setInt(2, mediaId);
-                cs.executeQuery();
-
-                cs.close();
-
+        int chunkSize = DatabaseUtility.getBatchChunkSize();
+        try (var connection = DatabaseUtility.getConnection()) {
+            try {
+                //Starts a transaction for all the chunks.
+                connection.setAutoCommit(false);
+
+                for (int start = 0; start < personIds.size(); start += chunkSize) {
+                    var chunk = personIds.subList(start, Math.min(start + chunkSize, personIds.size()));
+
+                    //Full chunks share the same sql text, so their statement is reused from the statement cache.
+                    try (var ps = connection.prepareStatement(ADDPERSONSMEDIAQUERY
+                            + DatabaseUtility.repeatPlaceholders("(?, ?)", chunk.size()))) {
+                        int parameterIndex = 1;
+                        for (var personId : chunk) {
+                            ps.setInt(parameterIndex++, personId);
+                            ps.setInt(parameterIndex++, mediaId);
+                        }
+                        ps.executeUpdate();
+                    }
+                }
+
+                //Commit if all the chunks went through.
+                connection.commit();
+                return true;
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
             }
-            _connection.commit();
-            return true;
         } catch (SQLException ex) {
             throw new IOException("Unable to connect to the database.");
         }
@@ -208,13 +230,13 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public boolean isMediaExists(int id) {
-        try {
-            var cs = _connection.prepareCall(ISMEDIAEXISTSQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(ISMEDIAEXISTSQUERY)) {
             cs.setInt(1, id);
             cs.registerOutParameter(2, Types.INTEGER);
+            cs.executeQuery();
 
             var result = cs.getInt(2);
-            cs.close();
 
             return result == 1 ? true : false;
 
@@ -223,6 +245,25 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
         }
     }
 
+    /**
+     * Gets the ids of all the media in the external source.
+     *
+     * @return bitset with a bit set for every media id.
+     * @throws SQLException
+     */
+    @Override
+    public BitSet getMediaIds() throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETMEDIAIDSQUERY);
+             var result = ps.executeQuery()) {
+            var ids = new BitSet();
+            while (result.next()) {
+                ids.set(result.getInt(1));
+            }
+            return ids;
+        }
+    }
+
     /**
      * Saver media predefined attributes and new attributes inside a transaction and fails when either of the
      * update fails.
@@ -234,21 +275,30 @@ public class MediaArchiveGateway implements IMediaArchiveGateway {
      */
     @Override
     public boolean saveMediaAndMediaAttributes(FileIdentifierInternal fileIdentity, List<Attribute> attributes, boolean isFileIdentityUpdateRequired) throws SQLException {
-        try {
-            _connection.setAutoCommit(false);
-
-            if (isFileIdentityUpdateRequired)
-                //Updates pre-defined attributes of a media.
-                updateMedia(fileIdentity);
-
-            //Updates extra attributes of a media.
-            for (var attribute : attributes) {
-                saveMediaAttribute(fileIdentity.getMediaId(), attribute.getTypeId(), attribute.getTypeValue());
+        try (var connection = DatabaseUtility.getConnection()) {
+            DimensionCache.Resolution resolution = null;
+            try {
+                connection.setAutoCommit(false);
+
+                if (isFileIdentityUpdateRequired) {
+                    //Updates pre-defined attributes of a media.
+                    resolution = DimensionCache.getInstance().startResolution(connection);
+                    updateMedia(connection, resolution, fileIdentity);
+                }
+
+                //Updates extra attributes of a media.
+                for (var attribute : attributes) {
+                    saveMediaAttribute(connection, fileIdentity.getMediaId(), attribute.getTypeId(), attribute.getTypeValue());
+                }
+                connection.commit();
+
+                //Location ids created inside the transaction are cached only once they are committed.
+                if (resolution != null)
+                    resolution.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
             }
-            _connection.commit();
-        } catch (SQLException exception) {
-            _connection.rollback();
-            throw exception;
         }
         return true;
     }
@@ -3,6 +3,7 @@ package com.findyourfamily.app.database.reporting;
 import com.findyourfamily.app.models.domain.FileIdentifierInternal;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -29,6 +30,14 @@ public interface IReportMediaInfoGateway {
      */
     void fillAttributes(FileIdentifierInternal fileIdentifier) throws SQLException;
 
+    /**
+     * Fills all the attributes types for many media, with a single query for every chunk of media.
+     *
+     * @param fileIdentifiers
+     * @throws SQLException
+     */
+    void fillAttributes(Collection<FileIdentifierInternal> fileIdentifiers) throws SQLException;
+
     /**
      * Finds the media name for a given id.
      *
@@ -71,4 +80,15 @@ public interface IReportMediaInfoGateway {
      */
     List<FileIdentifierInternal> findIndividualsMedia(int personId, Date startDate, Date endDate) throws SQLException;
 
+    /**
+     * Finds the distinct media of all the given persons within the range, ordered by date and then name.
+     *
+     * @param personIds
+     * @param startDate
+     * @param endDate
+     * @return list of files
+     * @throws SQLException
+     */
+    List<FileIdentifierInternal> findPersonsMedia(Set<Integer> personIds, Date startDate, Date endDate) throws SQLException;
+
 }
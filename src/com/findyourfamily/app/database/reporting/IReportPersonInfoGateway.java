@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Type for having reporting functionality related to a person.
@@ -31,6 +32,15 @@ public interface IReportPersonInfoGateway {
      */
     String findName(int id) throws SQLException;
 
+    /**
+     * Finds the names corresponding to the persons' ids, with a single query for every chunk of ids.
+     *
+     * @param ids
+     * @return names by person id, ids not present in the external source are left out.
+     * @throws SQLException
+     */
+    Map<Integer, String> findNames(Set<Integer> ids) throws SQLException;
+
     /**
      * Insert all the attributes related to a person. If true is passed get all the
      * attributes otherwise get only references and notes.
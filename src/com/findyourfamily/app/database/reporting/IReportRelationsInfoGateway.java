@@ -1,9 +1,14 @@
 package com.findyourfamily.app.database.reporting;
 
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
+import com.findyourfamily.app.models.shared.CommonAncestorLite;
 import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Type for having reporting functionality related to a media.
@@ -18,6 +23,56 @@ public interface IReportRelationsInfoGateway {
      */
     List<PersonRelationshipLite> getPersonRelations(int personId);
 
+    /**
+     * Get information related to many persons, like parents, partner and children, with a single query
+     * for every chunk of ids.
+     *
+     * @param personIds
+     * @return
+     */
+    List<PersonRelationshipLite> getPersonsRelations(Set<Integer> personIds);
+
+    /**
+     * Get the descendants or ancestors of a person up to the given generations, computed inside the external
+     * source with a single recursive query.
+     *
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @return
+     */
+    Map<Integer, Integer> getRelatives(int personId, int generations, boolean isDescendants);
+
+    /**
+     * Checks if a person is an ancestor of another person, using the closure of the parent-child relations.
+     *
+     * @param ancestorId
+     * @param descendantId
+     * @return true if the first person is an ancestor of the second.
+     * @throws SQLException
+     */
+    boolean isAncestor(int ancestorId, int descendantId) throws SQLException;
+
+    /**
+     * Get the descendants of a person up to the given generations, using the closure of the parent-child relations.
+     *
+     * @param personId
+     * @param generations
+     * @return generation of every descendant by person id.
+     * @throws SQLException
+     */
+    Map<Integer, Integer> getDescendantsWithin(int personId, int generations) throws SQLException;
+
+    /**
+     * Get the ancestors shared by 2 persons using the closure of the parent-child relations, closest first.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return common ancestors ordered by the generations to both the persons.
+     * @throws SQLException
+     */
+    List<CommonAncestorLite> getCommonAncestors(int person1Id, int person2Id) throws SQLException;
+
     /**
      * Get the person information related to a person id.
      *
@@ -25,4 +80,40 @@ public interface IReportRelationsInfoGateway {
      * @return
      */
     PersonIdentityInternal getPersonById(int personId);
+
+    /**
+     * Get the person information related to the person ids, with a single query for every chunk of ids.
+     *
+     * @param personIds
+     * @return
+     */
+    Set<PersonIdentityInternal> getPersonsByIds(Set<Integer> personIds);
+
+    /**
+     * Reads all the relations between persons with a forward only cursor, passing every relation to the consumer
+     * as soon as it is read.
+     *
+     * @param consumer
+     * @return number of relations read.
+     * @throws SQLException
+     */
+    int streamAllRelations(Consumer<PersonRelationshipLite> consumer) throws SQLException;
+
+    /**
+     * Gets the id of the last change made to the relations between persons.
+     *
+     * @return last change id, 0 when the relations never changed.
+     * @throws SQLException
+     */
+    long getLastRelationChange() throws SQLException;
+
+    /**
+     * Reads the changes made to the relations between persons after the given change, in the order they were made.
+     *
+     * @param afterChangeId
+     * @param consumer
+     * @return id of the last change read, the given change id when there is none.
+     * @throws SQLException
+     */
+    long streamRelationChanges(long afterChangeId, Consumer<PersonRelationshipLite> consumer) throws SQLException;
 }
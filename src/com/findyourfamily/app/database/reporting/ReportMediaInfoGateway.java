@@ -8,6 +8,8 @@ import com.findyourfamily.app.common.enums.MediaAttributesEnum;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -24,13 +26,20 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
     private final String FINDMEDIA_BYLOCATIONQUERY = "CALL find_mediaByLocation(?,?,?)";
     private final String FINDMEDIA_BYPERSONQUERY = "CALL find_mediaByPerson(?,?,?)";
     private String GETMEDIAATTRIBUTESQUERY = "{CALL get_mediaAttributes(?)}";
-
-    //Stores database connection.
-    private Connection _connection;
-
-    public ReportMediaInfoGateway() {
-        _connection = DatabaseUtility.getConnection();
-    }
+    private final String FINDMEDIA_BYPERSONSQUERY = "SELECT DISTINCT M.mediaId, M.mediaName, M.mediaLocation, " +
+            "M.dateOfPicture, L.locationName, L.city, L.province, L.country " +
+            "FROM persons_media PM INNER JOIN media M ON PM.mediaId = M.mediaId " +
+            "LEFT JOIN locations L ON M.locationOfPictureId = L.locationId " +
+            "WHERE %s%s ORDER BY (M.dateOfPicture IS NULL), M.dateOfPicture, M.mediaName";
+    private final String PERSONIDS_INCONDITION = "PM.personId IN (%s)";
+    private final String PERSONIDS_TEMPTABLECONDITION = "PM.personId IN (SELECT personId FROM tmp_mediaPersonIds)";
+    private final String CREATEPERSONIDSTEMPTABLEQUERY = "CREATE TEMPORARY TABLE IF NOT EXISTS tmp_mediaPersonIds " +
+            "(personId INT NOT NULL PRIMARY KEY)";
+    private final String ADDPERSONIDSTEMPTABLEQUERY = "INSERT IGNORE INTO tmp_mediaPersonIds(personId) VALUES ";
+    private final String DROPPERSONIDSTEMPTABLEQUERY = "DROP TEMPORARY TABLE IF EXISTS tmp_mediaPersonIds";
+    private final String GETMEDIASATTRIBUTESQUERY = "SELECT MA.mediaId, MAT.attributeType, MA.attributeValue " +
+            "FROM media_attributes MA INNER JOIN media_attribute_type MAT " +
+            "ON MA.attributeTypeId = MAT.attributeTypeId WHERE MA.mediaId IN (%s)";
 
     /**
      * Finds the media file information for a given file name.
@@ -41,8 +50,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public FileIdentifierInternal findMediaFile(String name) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDMEDIAQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDMEDIAQUERY)) {
             cs.setString(1, name);
             var result = cs.executeQuery();
 
@@ -65,8 +74,6 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
                 locationOfPicture.setProvince(result.getString(7));
                 locationOfPicture.setCountry(result.getString(8));
 
-                cs.close();
-
                 return fileIdentifier;
             }
         } catch (SQLException ex) {
@@ -85,8 +92,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public void fillAttributes(FileIdentifierInternal fileIdentifier) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(GETMEDIAATTRIBUTESQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(GETMEDIAATTRIBUTESQUERY)) {
             cs.setInt(1, fileIdentifier.getMediaId());
             var result = cs.executeQuery();
             Map<String, String> attributes = new HashMap<>();
@@ -107,7 +114,6 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
                 }
             }
 
-            cs.close();
             fileIdentifier.setTags(tags);
             fileIdentifier.setAttributes(attributes);
         } catch (SQLException ex) {
@@ -116,6 +122,64 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
         }
     }
 
+    /**
+     * Fills all the attributes types for many media. Attributes of a chunk of media are read with a single query,
+     * the last chunk is padded with its last id so that every chunk uses the same statement.
+     *
+     * @param fileIdentifiers
+     * @throws SQLException
+     */
+    @Override
+    public void fillAttributes(Collection<FileIdentifierInternal> fileIdentifiers) throws SQLException {
+        if (fileIdentifiers == null || fileIdentifiers.isEmpty())
+            return;
+
+        //Same media can be present more than once, e.g. when the files are collected for different persons.
+        Map<Integer, List<FileIdentifierInternal>> filesById = new LinkedHashMap<>();
+        for (var fileIdentifier : fileIdentifiers) {
+            filesById.computeIfAbsent(fileIdentifier.getMediaId(), id -> new ArrayList<>()).add(fileIdentifier);
+        }
+
+        Map<Integer, Map<String, String>> attributesById = new HashMap<>();
+        Map<Integer, List<String>> tagsById = new HashMap<>();
+        var tagType = MediaAttributesEnum.TAG.name().toLowerCase(Locale.ROOT);
+        var ids = new ArrayList<>(filesById.keySet());
+        var chunkSize = Math.min(DatabaseUtility.getBatchChunkSize(), ids.size());
+        var query = String.format(GETMEDIASATTRIBUTESQUERY, DatabaseUtility.repeatPlaceholders("?", chunkSize));
+
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(query)) {
+            for (int start = 0; start < ids.size(); start += chunkSize) {
+                DatabaseUtility.setIdsChunk(ps, 1, ids, start, chunkSize);
+
+                //Assigns the rows to their media in one pass.
+                try (var result = ps.executeQuery()) {
+                    while (result.next()) {
+                        var mediaId = result.getInt(1);
+                        var attributeType = result.getString(2);
+                        var attributeValue = result.getString(3);
+                        if (attributeType == null || attributeValue == null)
+                            continue;
+                        if (attributeType.equals(tagType))
+                            tagsById.computeIfAbsent(mediaId, id -> new ArrayList<>()).add(attributeValue);
+                        else
+                            attributesById.computeIfAbsent(mediaId, id -> new HashMap<>()).put(attributeType, attributeValue);
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            throw ex;
+        }
+
+        for (var entry : filesById.entrySet()) {
+            for (var fileIdentifier : entry.getValue()) {
+                fileIdentifier.setTags(new ArrayList<>(tagsById.getOrDefault(entry.getKey(), List.of())));
+                fileIdentifier.setAttributes(new HashMap<>(attributesById.getOrDefault(entry.getKey(), Map.of())));
+            }
+        }
+    }
+
     /**
      * Finds the media name for a given id.
      *
@@ -125,8 +189,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public String findMediaFile(int fileId) {
-        try {
-            var cs = _connection.prepareCall(FINDMEDIA_FILENAMEQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDMEDIA_FILENAMEQUERY)) {
             cs.setInt(1, fileId);
             var result = cs.executeQuery();
 
@@ -137,8 +201,6 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
             while (result.next()) {
                 name = result.getString(MediaAttributesEnum.MEDIANAME.name());
 
-                cs.close();
-
                 return name;
             }
         } catch (SQLException ex) {
@@ -158,8 +220,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public Set<FileIdentifierInternal> findMediaByTag(String tag, Date startDate, Date endDate) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDMEDIA_BYTAGQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDMEDIA_BYTAGQUERY)) {
             cs.setString(1, tag);
             if (startDate == null)
                 cs.setDate(2, null);
@@ -188,8 +250,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public Set<FileIdentifierInternal> findMediaByLocation(String location, Date startDate, Date endDate) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDMEDIA_BYLOCATIONQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDMEDIA_BYLOCATIONQUERY)) {
             cs.setString(1, location);
             if (startDate == null)
                 cs.setDate(2, null);
@@ -218,8 +280,8 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
      */
     @Override
     public List<FileIdentifierInternal> findIndividualsMedia(int personId, Date startDate, Date endDate) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDMEDIA_BYPERSONQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDMEDIA_BYPERSONQUERY)) {
             cs.setInt(1, personId);
             if (startDate == null)
                 cs.setDate(2, null);
@@ -237,6 +299,129 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
         }
     }
 
+    /**
+     * Find distinct media for all the given persons within a given time frame, ordered by date and then name with
+     * undated media at the end. The database removes the duplicates and sorts the media. Small sets of persons are
+     * passed inside the query, larger sets are first loaded into a temporary table.
+     *
+     * @param personIds
+     * @param startDate
+     * @param endDate
+     * @return the list of files for the persons.
+     * @throws SQLException
+     */
+    @Override
+    public List<FileIdentifierInternal> findPersonsMedia(Set<Integer> personIds, Date startDate, Date endDate) throws SQLException {
+        if (personIds == null || personIds.isEmpty())
+            return new ArrayList<>();
+
+        var ids = new ArrayList<>(personIds);
+        var chunkSize = DatabaseUtility.getBatchChunkSize();
+        var dateCondition = getDateCondition(startDate, endDate);
+
+        try (var connection = DatabaseUtility.getConnection()) {
+            //All the ids fit in a single query.
+            if (ids.size() <= chunkSize) {
+                try (var ps = connection.prepareStatement(String.format(FINDMEDIA_BYPERSONSQUERY,
+                        String.format(PERSONIDS_INCONDITION, DatabaseUtility.repeatPlaceholders("?", ids.size())),
+                        dateCondition))) {
+                    DatabaseUtility.setIdsChunk(ps, 1, ids, 0, ids.size());
+                    setDateRange(ps, ids.size() + 1, startDate, endDate);
+                    return readMedia(ps);
+                }
+            }
+
+            try {
+                loadPersonIds(connection, ids, chunkSize);
+                try (var ps = connection.prepareStatement(String.format(FINDMEDIA_BYPERSONSQUERY,
+                        PERSONIDS_TEMPTABLECONDITION, dateCondition))) {
+                    setDateRange(ps, 1, startDate, endDate);
+                    return readMedia(ps);
+                }
+            } finally {
+                try (var statement = connection.createStatement()) {
+                    statement.execute(DROPPERSONIDSTEMPTABLEQUERY);
+                }
+            }
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            throw ex;
+        }
+    }
+
+    /**
+     * Loads the person ids into the temporary table of the connection, in chunks.
+     *
+     * @param connection
+     * @param ids
+     * @param chunkSize
+     * @throws SQLException
+     */
+    private void loadPersonIds(Connection connection, List<Integer> ids, int chunkSize) throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute(CREATEPERSONIDSTEMPTABLEQUERY);
+        }
+        try (var ps = connection.prepareStatement(ADDPERSONIDSTEMPTABLEQUERY
+                + DatabaseUtility.repeatPlaceholders("(?)", chunkSize))) {
+            for (int start = 0; start < ids.size(); start += chunkSize) {
+                //Padded ids are ignored as duplicates.
+                DatabaseUtility.setIdsChunk(ps, 1, ids, start, chunkSize);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Gets the condition restricting the media to the range. Media without a date are kept when only one end
+     * of the range is given.
+     *
+     * @param startDate
+     * @param endDate
+     * @return condition to be appended to the query.
+     */
+    private String getDateCondition(Date startDate, Date endDate) {
+        if (startDate != null && endDate != null)
+            return " AND M.dateOfPicture BETWEEN ? AND ?";
+        if (endDate != null)
+            return " AND (M.dateOfPicture IS NULL OR M.dateOfPicture <= ?)";
+        if (startDate != null)
+            return " AND (M.dateOfPicture IS NULL OR M.dateOfPicture >= ?)";
+        return "";
+    }
+
+    /**
+     * Sets the dates of the range used by the date condition.
+     *
+     * @param ps
+     * @param parameterIndex
+     * @param startDate
+     * @param endDate
+     * @throws SQLException
+     */
+    private void setDateRange(PreparedStatement ps, int parameterIndex, Date startDate, Date endDate) throws SQLException {
+        if (startDate != null)
+            ps.setDate(parameterIndex++, new java.sql.Date(startDate.getTime()));
+        if (endDate != null)
+            ps.setDate(parameterIndex, new java.sql.Date(endDate.getTime()));
+    }
+
+    /**
+     * Reads the media in the order returned by the external source, mapping every row as it is read.
+     *
+     * @param ps
+     * @return list of files.
+     * @throws SQLException
+     */
+    private List<FileIdentifierInternal> readMedia(PreparedStatement ps) throws SQLException {
+        var files = new ArrayList<FileIdentifierInternal>();
+        try (var result = ps.executeQuery()) {
+            while (result.next()) {
+                files.add(mapMedia(result));
+            }
+        }
+        return files;
+    }
+
     /**
      * Find media according to the given callable statement created.
      * Currently, it has person id, location or tag.
@@ -252,27 +437,37 @@ public class ReportMediaInfoGateway implements IReportMediaInfoGateway {
             return null;
 
         var files = new ArrayList<FileIdentifierInternal>();
-        FileIdentifierInternal fileIdentifier;
 
         //Loops through all the files and creates a list for i.
         while (result.next()) {
-            fileIdentifier = new FileIdentifierInternal(result.getInt(1),
-                    result.getString(2),
-                    result.getString(3));
-
-            var pictureDate = result.getDate(4);
-            if (pictureDate != null)
-                fileIdentifier.setDateOfPicture(pictureDate);
-
-            var locationOfPicture = new Location();
-            locationOfPicture.setLocationName(result.getString(5));
-            locationOfPicture.setCity(result.getString(6));
-            locationOfPicture.setProvince(result.getString(7));
-            locationOfPicture.setCountry(result.getString(8));
-            files.add(fileIdentifier);
+            files.add(mapMedia(result));
         }
-        cs.close();
         return files;
     }
 
+    /**
+     * Maps the current row of media information to a file.
+     *
+     * @param result
+     * @return file identifier.
+     * @throws SQLException
+     */
+    private FileIdentifierInternal mapMedia(ResultSet result) throws SQLException {
+        var fileIdentifier = new FileIdentifierInternal(result.getInt(1),
+                result.getString(2),
+                result.getString(3));
+
+        var pictureDate = result.getDate(4);
+        if (pictureDate != null)
+            fileIdentifier.setDateOfPicture(pictureDate);
+
+        var locationOfPicture = new Location();
+        locationOfPicture.setLocationName(result.getString(5));
+        locationOfPicture.setCity(result.getString(6));
+        locationOfPicture.setProvince(result.getString(7));
+        locationOfPicture.setCountry(result.getString(8));
+        fileIdentifier.setLocationOfPicture(locationOfPicture);
+        return fileIdentifier;
+    }
+
 }
@@ -7,7 +7,6 @@ import com.findyourfamily.app.models.domain.PersonIdentityInternal;
 import com.findyourfamily.app.common.enums.PersonAttributesEnum;
 
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -16,19 +15,13 @@ import java.util.*;
  */
 public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
 
-    //Stores database connection.
-    private Connection _connection;
-
     //Constants for storing stored procedures call.
     private final String FINDPERSONQUERY = "{CALL find_person(?)}";
     private final String FINDNAMEQUERY = "{CALL find_name(?)}";
+    private final String FINDNAMESQUERY = "SELECT personId, personName FROM persons WHERE personId IN (%s)";
     private final String GETPERSONATTRIBUTESQUERY = "{CALL get_personAttributes(?, ?)}";
     private final String FINDPERSONSINMEDIAQUERY = "{CALL find_personInMedia(?)}";
 
-    public ReportPersonInfoGateway() {
-        _connection = DatabaseUtility.getConnection();
-    }
-
     /**
      * Finds a person from the external source with name. If there are multiple entries for the same name,
      * one returned by the external source is used.
@@ -39,8 +32,8 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
      */
     @Override
     public PersonIdentityInternal findPerson(String name) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDPERSONQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDPERSONQUERY)) {
             cs.setString(1, name);
             var result = cs.executeQuery();
 
@@ -79,8 +72,6 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
                 personIdentity.setLocationOfDeath(locationOfDeath);
                 personIdentity.setOccupation(result.getString(14));
 
-                cs.close();
-
                 return personIdentity;
             }
         } catch (SQLException ex) {
@@ -99,8 +90,8 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
      */
     @Override
     public String findName(int id) throws SQLException {
-        try {
-            var cs = _connection.prepareCall(FINDNAMEQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDNAMEQUERY)) {
             cs.setInt(1, id);
             var result = cs.executeQuery();
 
@@ -110,8 +101,6 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
             String name;
             while (result.next()) {
                 name = result.getString(1);
-                cs.close();
-
                 return name;
             }
         } catch (SQLException ex) {
@@ -121,6 +110,39 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
         return null;
     }
 
+    /**
+     * Finds the names corresponding to the persons' ids, with a single query for every chunk of ids.
+     *
+     * @param ids
+     * @return names by person id, ids not present in the external source are left out.
+     * @throws SQLException
+     */
+    @Override
+    public Map<Integer, String> findNames(Set<Integer> ids) throws SQLException {
+        Map<Integer, String> names = new HashMap<>();
+        if (ids == null || ids.isEmpty())
+            return names;
+
+        var idsList = new ArrayList<>(ids);
+        var chunkSize = Math.min(DatabaseUtility.getBatchChunkSize(), idsList.size());
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(String.format(FINDNAMESQUERY,
+                     DatabaseUtility.repeatPlaceholders("?", chunkSize)))) {
+            for (int start = 0; start < idsList.size(); start += chunkSize) {
+                DatabaseUtility.setIdsChunk(ps, 1, idsList, start, chunkSize);
+                try (var result = ps.executeQuery()) {
+                    while (result.next()) {
+                        names.put(result.getInt(1), result.getString(2));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            throw ex;
+        }
+        return names;
+    }
+
     /**
      * Insert all the attributes related to a person. If true is passed get all the
      * attributes otherwise get only references and notes.
@@ -132,8 +154,8 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
      */
     @Override
     public Map<String, String> fillAttributes(PersonIdentityInternal personIdentity, boolean allAttributesRequired) {
-        try {
-            var cs = _connection.prepareCall(GETPERSONATTRIBUTESQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(GETPERSONATTRIBUTESQUERY)) {
             cs.setInt(1, personIdentity.getPersonId());
             cs.setInt(2, allAttributesRequired ? 1 : 0);
             var result = cs.executeQuery();
@@ -169,8 +191,6 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
                 }
             }
 
-            cs.close();
-
             return attributes;
         } catch (SQLException ex) {
             System.out.println(ex.getMessage());
@@ -180,8 +200,8 @@ public class ReportPersonInfoGateway implements IReportPersonInfoGateway {
 
     @Override
     public List<Integer> findPersonsInMedia(int mediaId) {
-        try {
-            var cs = _connection.prepareCall(FINDPERSONSINMEDIAQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDPERSONSINMEDIAQUERY)) {
             cs.setInt(1, mediaId);
 
             var result = cs.executeQuery();
@@ -4,12 +4,18 @@ import com.findyourfamily.app.database.DatabaseUtility;
 import com.findyourfamily.app.models.domain.DateRecord;
 import com.findyourfamily.app.models.domain.Location;
 import com.findyourfamily.app.models.domain.PersonIdentityInternal;
+import com.findyourfamily.app.models.shared.CommonAncestorLite;
 import com.findyourfamily.app.models.shared.PersonRelationshipLite;
 
-import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Type for having reporting functionality related to a media.
@@ -19,11 +25,41 @@ public class ReportRelationsInfoGateway implements IReportRelationsInfoGateway {
     //Constants for storing stored procedures call.
     private String GETPERSONRELATIONSSQUERY = "{CALL get_personRelations(?)}";
     private String FINDPERSONBYIDSQUERY = "{CALL find_personById(?)}";
-    private Connection _connection;
-
-    public ReportRelationsInfoGateway() {
-        _connection = DatabaseUtility.getConnection();
-    }
+    private final String GETALLRELATIONSQUERY = "SELECT person1Id, person2Id, personRelationTypeId, isActive " +
+            "FROM person_relations";
+    private final String GETLASTRELATIONCHANGEQUERY = "SELECT COALESCE(MAX(changeId), 0) FROM person_relation_changes";
+    private final String GETRELATIONCHANGESQUERY = "SELECT changeId, person1Id, person2Id, personRelationTypeId, " +
+            "isActive FROM person_relation_changes WHERE changeId > ? ORDER BY changeId";
+    private final String GETPERSONSRELATIONSQUERY = "SELECT person1Id, person2Id, personRelationTypeId, isActive " +
+            "FROM person_relations WHERE person1Id IN (%s) OR (person2Id IN (%s) AND personRelationTypeId = 1)";
+    private final String GETDESCENDANTSQUERY = "WITH RECURSIVE relatives (personId, depth) AS (" +
+            "SELECT person2Id, 1 FROM person_relations WHERE person1Id = ? AND personRelationTypeId = 1 " +
+            "UNION " +
+            "SELECT PR.person2Id, R.depth + 1 FROM relatives R JOIN person_relations PR " +
+            "ON PR.person1Id = R.personId AND PR.personRelationTypeId = 1 WHERE R.depth < ?) " +
+            "SELECT personId, MIN(depth) FROM relatives WHERE personId <> ? GROUP BY personId";
+    private final String GETANCESTORSQUERY = "WITH RECURSIVE relatives (personId, depth) AS (" +
+            "SELECT person1Id, 1 FROM person_relations WHERE person2Id = ? AND personRelationTypeId = 1 " +
+            "UNION " +
+            "SELECT PR.person1Id, R.depth + 1 FROM relatives R JOIN person_relations PR " +
+            "ON PR.person2Id = R.personId AND PR.personRelationTypeId = 1 WHERE R.depth < ?) " +
+            "SELECT personId, MIN(depth) FROM relatives WHERE personId <> ? GROUP BY personId";
+    private final String ISANCESTORQUERY = "SELECT 1 FROM person_closure WHERE ancestorId = ? AND descendantId = ?";
+    private final String GETDESCENDANTSWITHINQUERY = "SELECT descendantId, depth FROM person_closure " +
+            "WHERE ancestorId = ? AND depth <= ?";
+    private final String GETCOMMONANCESTORSQUERY = "SELECT A.ancestorId, A.depth, B.depth " +
+            "FROM (SELECT ancestorId, depth FROM person_closure WHERE descendantId = ? UNION ALL SELECT ?, 0) A " +
+            "JOIN (SELECT ancestorId, depth FROM person_closure WHERE descendantId = ? UNION ALL SELECT ?, 0) B " +
+            "ON A.ancestorId = B.ancestorId ORDER BY A.depth + B.depth, A.ancestorId";
+    private final String FINDPERSONSBYIDSQUERY = "SELECT P.personId, P.personName, G.genderName, P.dateOfBirth, " +
+            "L1.locationName, L1.city, L1.province, L1.country, " +
+            "P.dateOfDeath, L2.locationName, L2.city, L2.province, L2.country, O.occupationName " +
+            "FROM persons P " +
+            "LEFT JOIN locations L1 ON P.locationOfBirthId = L1.locationId " +
+            "LEFT JOIN locations L2 ON P.locationOfDeathId = L2.locationId " +
+            "LEFT JOIN occupations O ON P.occupationId = O.occupationId " +
+            "LEFT JOIN gender G ON P.genderId = G.genderId " +
+            "WHERE P.personId IN (%s)";
 
     /**
      * Get information related to a person, like parents, partner and children.
@@ -33,8 +69,8 @@ public class ReportRelationsInfoGateway implements IReportRelationsInfoGateway {
      */
     @Override
     public List<PersonRelationshipLite> getPersonRelations(int personId) {
-        try {
-            var cs = _connection.prepareCall(GETPERSONRELATIONSSQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(GETPERSONRELATIONSSQUERY)) {
             cs.setInt(1, personId);
             var result = cs.executeQuery();
 
@@ -51,13 +87,149 @@ public class ReportRelationsInfoGateway implements IReportRelationsInfoGateway {
 
             }
 
-            cs.close();
+            return personRelations;
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+    }
 
+    /**
+     * Get information related to many persons, like parents, partner and children, with a single query
+     * for every chunk of ids. Relations are read the same way as for a single person.
+     *
+     * @param personIds
+     * @return gets the list of relations information of all the persons.
+     */
+    @Override
+    public List<PersonRelationshipLite> getPersonsRelations(Set<Integer> personIds) {
+        var personRelations = new ArrayList<PersonRelationshipLite>();
+        if (personIds == null || personIds.isEmpty())
             return personRelations;
+
+        var ids = new ArrayList<>(personIds);
+        var chunkSize = Math.min(DatabaseUtility.getBatchChunkSize(), ids.size());
+        var placeholders = DatabaseUtility.repeatPlaceholders("?", chunkSize);
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(String.format(GETPERSONSRELATIONSQUERY, placeholders, placeholders))) {
+            for (int start = 0; start < ids.size(); start += chunkSize) {
+                DatabaseUtility.setIdsChunk(ps, 1, ids, start, chunkSize);
+                DatabaseUtility.setIdsChunk(ps, chunkSize + 1, ids, start, chunkSize);
+                try (var result = ps.executeQuery()) {
+                    while (result.next()) {
+                        personRelations.add(new PersonRelationshipLite(result.getInt(1), result.getInt(2),
+                                result.getInt(3), result.getInt(4)));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+        return personRelations;
+    }
+
+    /**
+     * Get the descendants or ancestors of a person up to the given generations, computed inside the external
+     * source with a single recursive query over the parent-child relations.
+     *
+     * @param personId
+     * @param generations
+     * @param isDescendants
+     * @return generation of every relative by person id, null when they could not be read.
+     */
+    @Override
+    public Map<Integer, Integer> getRelatives(int personId, int generations, boolean isDescendants) {
+        var relatives = new HashMap<Integer, Integer>();
+        if (generations <= 0)
+            return relatives;
+
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(isDescendants ? GETDESCENDANTSQUERY : GETANCESTORSQUERY)) {
+            ps.setInt(1, personId);
+            ps.setInt(2, generations);
+            ps.setInt(3, personId);
+            try (var result = ps.executeQuery()) {
+                while (result.next()) {
+                    relatives.put(result.getInt(1), result.getInt(2));
+                }
+            }
         } catch (SQLException ex) {
             System.out.println(ex.getMessage());
             return null;
         }
+        return relatives;
+    }
+
+    /**
+     * Checks if a person is an ancestor of another person, using the closure of the parent-child relations.
+     *
+     * @param ancestorId
+     * @param descendantId
+     * @return true if the first person is an ancestor of the second.
+     * @throws SQLException
+     */
+    @Override
+    public boolean isAncestor(int ancestorId, int descendantId) throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(ISANCESTORQUERY)) {
+            ps.setInt(1, ancestorId);
+            ps.setInt(2, descendantId);
+            try (var result = ps.executeQuery()) {
+                return result.next();
+            }
+        }
+    }
+
+    /**
+     * Get the descendants of a person up to the given generations, using the closure of the parent-child relations.
+     *
+     * @param personId
+     * @param generations
+     * @return generation of every descendant by person id.
+     * @throws SQLException
+     */
+    @Override
+    public Map<Integer, Integer> getDescendantsWithin(int personId, int generations) throws SQLException {
+        var descendants = new HashMap<Integer, Integer>();
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETDESCENDANTSWITHINQUERY)) {
+            ps.setInt(1, personId);
+            ps.setInt(2, generations);
+            try (var result = ps.executeQuery()) {
+                while (result.next()) {
+                    descendants.put(result.getInt(1), result.getInt(2));
+                }
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Get the ancestors shared by 2 persons using the closure of the parent-child relations, closest first.
+     * A person is its own ancestor at generation 0, so that a direct line is found as well.
+     *
+     * @param person1Id
+     * @param person2Id
+     * @return common ancestors ordered by the generations to both the persons.
+     * @throws SQLException
+     */
+    @Override
+    public List<CommonAncestorLite> getCommonAncestors(int person1Id, int person2Id) throws SQLException {
+        var commonAncestors = new ArrayList<CommonAncestorLite>();
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETCOMMONANCESTORSQUERY)) {
+            ps.setInt(1, person1Id);
+            ps.setInt(2, person1Id);
+            ps.setInt(3, person2Id);
+            ps.setInt(4, person2Id);
+            try (var result = ps.executeQuery()) {
+                while (result.next()) {
+                    commonAncestors.add(new CommonAncestorLite(result.getInt(1), result.getInt(2), result.getInt(3)));
+                }
+            }
+        }
+        return commonAncestors;
     }
 
     /**
@@ -68,36 +240,13 @@ public class ReportRelationsInfoGateway implements IReportRelationsInfoGateway {
      */
     @Override
     public PersonIdentityInternal getPersonById(int personId) {
-        try {
-            var cs = _connection.prepareCall(FINDPERSONBYIDSQUERY);
+        try (var connection = DatabaseUtility.getConnection();
+             var cs = connection.prepareCall(FINDPERSONBYIDSQUERY)) {
             cs.setInt(1, personId);
             var result = cs.executeQuery();
 
-            PersonIdentityInternal personIdentity;
             while (result.next()) {
-                personIdentity = new PersonIdentityInternal(result.getInt(1),
-                        result.getString(2));
-                personIdentity.setGender(result.getString(3));
-                var birthDate = result.getDate(4);
-                personIdentity.setDateOfBirth(birthDate);
-                var locationOfBirth = new Location();
-                locationOfBirth.setLocationName(result.getString(5));
-                locationOfBirth.setCity(result.getString(6));
-                locationOfBirth.setProvince(result.getString(7));
-                locationOfBirth.setCountry(result.getString(8));
-                personIdentity.setLocationOfBirth(locationOfBirth);
-                var deathDate = result.getDate(9);
-                personIdentity.setDateOfDeath(deathDate);
-                var locationOfDeath = new Location();
-                locationOfDeath.setLocationName(result.getString(10));
-                locationOfDeath.setCity(result.getString(11));
-                locationOfDeath.setProvince(result.getString(12));
-                locationOfDeath.setCountry(result.getString(13));
-                personIdentity.setLocationOfDeath(locationOfDeath);
-                personIdentity.setOccupation(result.getString(14));
-                cs.close();
-
-                return personIdentity;
+                return mapPerson(result);
             }
         } catch (SQLException ex) {
             System.out.println(ex.getMessage());
@@ -105,4 +254,142 @@ public class ReportRelationsInfoGateway implements IReportRelationsInfoGateway {
         }
         return null;
     }
+
+    /**
+     * Get the person information related to the person ids, with a single query for every chunk of ids.
+     * Rows are mapped straight into the result.
+     *
+     * @param personIds
+     * @return person identity information for all the ids present in the external source.
+     */
+    @Override
+    public Set<PersonIdentityInternal> getPersonsByIds(Set<Integer> personIds) {
+        Set<PersonIdentityInternal> persons = new HashSet<>();
+        if (personIds == null || personIds.isEmpty())
+            return persons;
+
+        var ids = new ArrayList<>(personIds);
+        var chunkSize = Math.min(DatabaseUtility.getBatchChunkSize(), ids.size());
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(String.format(FINDPERSONSBYIDSQUERY,
+                     DatabaseUtility.repeatPlaceholders("?", chunkSize)))) {
+            for (int start = 0; start < ids.size(); start += chunkSize) {
+                DatabaseUtility.setIdsChunk(ps, 1, ids, start, chunkSize);
+                try (var result = ps.executeQuery()) {
+                    while (result.next()) {
+                        persons.add(mapPerson(result));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            System.out.println(ex.getMessage());
+            return null;
+        }
+        return persons;
+    }
+
+    /**
+     * Reads all the relations between persons with a forward only cursor, passing every relation to the consumer
+     * as soon as it is read. Rows are streamed by the driver instead of being held in memory.
+     *
+     * @param consumer
+     * @return number of relations read.
+     * @throws SQLException
+     */
+    @Override
+    public int streamAllRelations(Consumer<PersonRelationshipLite> consumer) throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETALLRELATIONSQUERY, ResultSet.TYPE_FORWARD_ONLY,
+                     ResultSet.CONCUR_READ_ONLY)) {
+            //Asks the MySQL driver to stream the rows one at a time.
+            ps.setFetchSize(Integer.MIN_VALUE);
+
+            int count = 0;
+            try (var result = ps.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(new PersonRelationshipLite(result.getInt(1), result.getInt(2),
+                            result.getInt(3), result.getInt(4)));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Gets the id of the last change made to the relations between persons.
+     *
+     * @return last change id, 0 when the relations never changed.
+     * @throws SQLException
+     */
+    @Override
+    public long getLastRelationChange() throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETLASTRELATIONCHANGEQUERY);
+             var result = ps.executeQuery()) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Reads the changes made to the relations between persons after the given change, in the order they were
+     * made, passing every change to the consumer as soon as it is read.
+     *
+     * @param afterChangeId
+     * @param consumer
+     * @return id of the last change read, the given change id when there is none.
+     * @throws SQLException
+     */
+    @Override
+    public long streamRelationChanges(long afterChangeId, Consumer<PersonRelationshipLite> consumer)
+            throws SQLException {
+        try (var connection = DatabaseUtility.getConnection();
+             var ps = connection.prepareStatement(GETRELATIONCHANGESQUERY, ResultSet.TYPE_FORWARD_ONLY,
+                     ResultSet.CONCUR_READ_ONLY)) {
+            //Asks the MySQL driver to stream the rows one at a time.
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setLong(1, afterChangeId);
+
+            var lastChangeId = afterChangeId;
+            try (var result = ps.executeQuery()) {
+                while (result.next()) {
+                    lastChangeId = result.getLong(1);
+                    consumer.accept(new PersonRelationshipLite(result.getInt(2), result.getInt(3),
+                            result.getInt(4), result.getInt(5)));
+                }
+            }
+            return lastChangeId;
+        }
+    }
+
+    /**
+     * Maps the current row of person information to a person.
+     *
+     * @param result
+     * @return person identity information.
+     * @throws SQLException
+     */
+    private PersonIdentityInternal mapPerson(ResultSet result) throws SQLException {
+        var personIdentity = new PersonIdentityInternal(result.getInt(1),
+                result.getString(2));
+        personIdentity.setGender(result.getString(3));
+        var birthDate = result.getDate(4);
+        personIdentity.setDateOfBirth(birthDate);
+        var locationOfBirth = new Location();
+        locationOfBirth.setLocationName(result.getString(5));
+        locationOfBirth.setCity(result.getString(6));
+        locationOfBirth.setProvince(result.getString(7));
+        locationOfBirth.setCountry(result.getString(8));
+        personIdentity.setLocationOfBirth(locationOfBirth);
+        var deathDate = result.getDate(9);
+        personIdentity.setDateOfDeath(deathDate);
+        var locationOfDeath = new Location();
+        locationOfDeath.setLocationName(result.getString(10));
+        locationOfDeath.setCity(result.getString(11));
+        locationOfDeath.setProvince(result.getString(12));
+        locationOfDeath.setCountry(result.getString(13));
+        personIdentity.setLocationOfDeath(locationOfDeath);
+        personIdentity.setOccupation(result.getString(14));
+        return personIdentity;
+    }
 }
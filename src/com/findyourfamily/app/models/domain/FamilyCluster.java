@@ -0,0 +1,34 @@
+package com.findyourfamily.app.models.domain;
+
+/**
+ * Type for storing the group of persons connected to a person by blood or marriage.
+ */
+public class FamilyCluster {
+
+    //Stores the id of the group, shared by all its persons.
+    private int clusterId;
+
+    //Stores the number of persons inside the group.
+    private int size;
+
+    public FamilyCluster(int clusterId, int size) {
+        this.clusterId = clusterId;
+        this.size = size;
+    }
+
+    /**
+     * Gets the id of the group, the same for all its persons until the group is joined with another.
+     * @return cluster id
+     */
+    public int getClusterId() {
+        return clusterId;
+    }
+
+    /**
+     * Gets the number of persons inside the group.
+     * @return cluster size
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -1,5 +1,7 @@
 package com.findyourfamily.app.models.domain;
 
+import java.util.Objects;
+
 /**
  * Type for storing only person's id.
  */
@@ -21,4 +23,16 @@ public class PersonIdentityLite {
         return personId;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PersonIdentityLite)) return false;
+        PersonIdentityLite that = (PersonIdentityLite) o;
+        return getPersonId() == that.getPersonId();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getPersonId());
+    }
 }
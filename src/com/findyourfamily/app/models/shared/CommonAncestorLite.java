@@ -0,0 +1,45 @@
+package com.findyourfamily.app.models.shared;
+
+/**
+ * Stores an ancestor shared by 2 persons.
+ */
+public class CommonAncestorLite {
+    //Ancestor id.
+    private int ancestorId;
+
+    //Generations between the ancestor and person 1.
+    private int person1Depth;
+
+    //Generations between the ancestor and person 2.
+    private int person2Depth;
+
+    public CommonAncestorLite(int ancestorId, int person1Depth, int person2Depth) {
+        this.ancestorId = ancestorId;
+        this.person1Depth = person1Depth;
+        this.person2Depth = person2Depth;
+    }
+
+    /**
+     * Gets the ancestor id.
+     * @return
+     */
+    public int getAncestorId() {
+        return ancestorId;
+    }
+
+    /**
+     * Gets the generations between the ancestor and person 1.
+     * @return
+     */
+    public int getPerson1Depth() {
+        return person1Depth;
+    }
+
+    /**
+     * Gets the generations between the ancestor and person 2.
+     * @return
+     */
+    public int getPerson2Depth() {
+        return person2Depth;
+    }
+}